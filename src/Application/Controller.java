@@ -1,6 +1,10 @@
 package Application;
 
-import LanguageProcesses.Plagiarism;
+import LanguageProcesses.CheckSession;
+import LanguageProcesses.PlagiarismEngine;
+import LanguageProcesses.Object.NearDuplicate;
+import LanguageProcesses.Object.SentenceScore;
+import LanguageProcesses.Object.SourceMatch;
 import LanguageProcesses.Object.Token;
 
 import javafx.collections.ObservableList;
@@ -24,7 +28,10 @@ import java.util.Random;
 public class Controller {
     private static final ArrayList<String> RANDOM_TEXTS_LIST = new ArrayList<>();
     private static final String RANDOM_TEXT_FILE = "Data/RandomTexts.txt";
+    private static final int NUMBER_OF_SOURCES = 3;
+    private static final double NEAR_DUPLICATE_SIMILARITY = 0.8;
     private static File selectedFile;
+    private static PlagiarismEngine engine;
 
     @FXML
     private TabPane tabPane;
@@ -44,7 +51,7 @@ public class Controller {
     @FXML
     public void initialize() {
         try {
-            Plagiarism.main(null);
+            engine = PlagiarismEngine.load(null);
             btn_check.setDefaultButton(true);
             readRandomTexts();
 
@@ -69,22 +76,30 @@ public class Controller {
             if (isValidInput(text))
                 throw new IllegalArgumentException("You must enter at least 5 Arabic words");
 
-            Plagiarism.setStemmedWordsHash(text);
+            CheckSession session = engine.newSession(text);
             String[] sentences = text.split("[.\n]");
 
             gp_result.getChildren().clear();
             gp_result.setPadding(new Insets(10));
 
+            NearDuplicate duplicate = session.findNearDuplicate(text, NEAR_DUPLICATE_SIMILARITY);
+            if (duplicate != null) {
+                showNearDuplicate(text, duplicate);
+                return;
+            }
+
             int row = 0;
             double sum = 0;
             for (String sentence: sentences) {
                 if (isValidSentence(sentence)) {
-                    double score = Plagiarism.getPlagiarismOfSentence(sentence);
-                    Label resultLabel = createScoreLabel(score);
-                    sum += score;
+                    SentenceScore sentenceScore = session.scoreSentence(sentence);
+                    Label resultLabel = createScoreLabel(sentenceScore.score);
+                    sum += sentenceScore.score;
+
+                    ArrayList<SourceMatch> sources = session.findSources(sentence, NUMBER_OF_SOURCES);
+                    if (!sources.isEmpty()) resultLabel.setTooltip(createSourcesTooltip(sources));
 
-                    ArrayList<Token> words = Plagiarism.getSentenceWordByWordWithProbability(sentence);
-                    TextFlow textFlow = createTextFlow(words);
+                    TextFlow textFlow = createTextFlow(sentenceScore.words);
 
                     gp_result.add(resultLabel, 0, row);
                     gp_result.add(textFlow, 1, row);
@@ -136,6 +151,9 @@ public class Controller {
         } catch (IOException ignored) {
         }
     }
+    public static void closeEngine() throws IOException {
+        if (engine != null) engine.close();
+    }
 
     private void readRandomTexts() throws IOException {
         BufferedReader br = new BufferedReader(new FileReader(RANDOM_TEXT_FILE));
@@ -171,10 +189,10 @@ public class Controller {
     }
 
     private boolean isValidInput(String text) {
-        return text.length() < 10 || Plagiarism.numberOfWords(text) < 5 || Plagiarism.numberOfWords(Plagiarism.processText(text)) < 5;
+        return text.length() < 10 || PlagiarismEngine.numberOfWords(text) < 5 || PlagiarismEngine.numberOfWords(engine.processText(text)) < 5;
     }
     private boolean isValidSentence(String sentence) {
-        return sentence.length() > 5 && Plagiarism.numberOfWords(sentence) > 5;
+        return sentence.length() > 5 && PlagiarismEngine.numberOfWords(sentence) > 5;
     }
     private String getScoreAsText(double score) {
         return (score >= 10) ? String.format("%.1f%%", score) : String.format("%.2f%%", score);
@@ -244,6 +262,34 @@ public class Controller {
         label.setStyle("-fx-background-color:" + circleColorHex + ";-fx-text-fill:" + textColorHex);
         return label;
     }
+    private void showNearDuplicate(String text, NearDuplicate duplicate) {
+        double score = duplicate.similarity * 100;
+        Label resultLabel = createScoreLabel(score);
+        resultLabel.setTooltip(createTooltip("Near duplicate of:\n" + duplicate.snippet));
+
+        ArrayList<Token> words = new ArrayList<>();
+        for (String word : text.trim().split("\\s+")) {
+            words.add(new Token(word, duplicate.similarity));
+        }
+
+        gp_result.add(resultLabel, 0, 0);
+        gp_result.add(createTextFlow(words), 1, 0);
+        lbl_result.setText(getScoreAsText(score));
+    }
+    private Tooltip createSourcesTooltip(ArrayList<SourceMatch> sources) {
+        StringBuilder sb = new StringBuilder("Possible sources:");
+        for (SourceMatch source : sources) {
+            sb.append("\n").append(source.sharedFingerprints).append(" shared - ").append(source.snippet);
+        }
+
+        return createTooltip(sb.toString());
+    }
+    private Tooltip createTooltip(String text) {
+        Tooltip tooltip = new Tooltip(text);
+        tooltip.setWrapText(true);
+        tooltip.setMaxWidth(600);
+        return tooltip;
+    }
     private TextFlow createTextFlow(ArrayList<Token> words) {
         TextFlow textFlow = new TextFlow();
         textFlow.setPadding(new Insets(15));
@@ -7,6 +7,7 @@ import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.stage.Stage;
 
+import java.io.IOException;
 import java.util.Objects;
 
 public class Main extends Application {
@@ -20,6 +21,11 @@ public class Main extends Application {
         primaryStage.show();
     }
 
+    @Override
+    public void stop() throws IOException {
+        Controller.closeEngine();    // stops the python stemmer workers with the application
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
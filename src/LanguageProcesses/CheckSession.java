@@ -0,0 +1,237 @@
+package LanguageProcesses;
+
+import LanguageProcesses.Object.NearDuplicate;
+import LanguageProcesses.Object.SentenceScore;
+import LanguageProcesses.Object.SourceMatch;
+import LanguageProcesses.Object.Token;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+
+import static LanguageProcesses.PlagiarismEngine.GRAM;
+import static LanguageProcesses.PlagiarismEngine.NOT_IN_MODEL;
+
+/**
+ * The check of one text, which scores the sentences of the text with the engine it was started from.
+ * The session holds the stems of the words of its text, and nothing else changes while it scores,
+ * so the sessions of different texts can be used at the same time on different threads.
+ */
+public class CheckSession {
+    /**
+     * Initialize the engine that holds the language model.
+     * Initialize the map of the processed words of the text to their stems.
+     */
+    private final PlagiarismEngine engine;
+    private final Map<String, String> stemmedWords;
+
+    CheckSession(PlagiarismEngine engine, Map<String, String> stemmedWords) {
+        this.engine = engine;
+        this.stemmedWords = Collections.unmodifiableMap(stemmedWords);
+    }
+
+    //////////////////////////////
+
+    /**
+     * Scores a sentence of the text and each word of it in one pass.
+     * The sentence is processed and stemmed once, the chunks of 1 to GRAM words that start at every
+     * word are looked up once, and both the score of the sentence and the probability of each word
+     * are taken from the same chunks.
+     *
+     * @param sentence the sentence to check for plagiarism
+     * @return the plagiarism percentage of the sentence, and its words with their probabilities
+     */
+    public SentenceScore scoreSentence(String sentence) {
+        String[] tokens = sentence.split(" ");
+        int[] firstWords = new int[tokens.length + 1];
+        int[] words = tokenizeSentence(tokens, firstWords);
+        if (words.length < 2) throw new IllegalArgumentException("Too short sentence");
+
+        double[][] probabilities = engine.getProbabilitiesOfChunks(words);
+        return new SentenceScore(getScore(probabilities, words.length), getWordsWithProbability(tokens, firstWords, probabilities));
+    }
+
+    /**
+     * Get the plagiarism percentage of a given sentence of the text.
+     *
+     * @param sentence the sentence to check for plagiarism
+     * @return a double value representing the plagiarism percentage of the sentence
+     */
+    public double getPlagiarismOfSentence(String sentence) {
+        int[] words = tokenizeSentence(sentence.split(" "), null);
+        if (words.length < 2) throw new IllegalArgumentException("Too short sentence");
+
+        return getScore(engine.getProbabilitiesOfChunks(words), words.length);
+    }
+
+    /**
+     * Returns a list of Tokens, each representing a word in the given sentence
+     * along with its probability of occurence in the language model.
+     * The probability of each word is the highest probability among the chunks of up to GRAM
+     * processed and stemmed words that contain the word (or that are next to it, for a stop word).
+     *
+     * @param sentence the sentence to process
+     * @return a list of Tokens
+     */
+    public ArrayList<Token> getSentenceWordByWordWithProbability(String sentence) {
+        String[] tokens = sentence.split(" ");
+        int[] firstWords = new int[tokens.length + 1];
+        int[] words = tokenizeSentence(tokens, firstWords);
+
+        return getWordsWithProbability(tokens, firstWords, engine.getProbabilitiesOfChunks(words));
+    }
+
+    /**
+     * Finds the lines of the corpus that a sentence of the text may be copied from, by the
+     * fingerprints of its processed and stemmed words that the lines share.
+     *
+     * @param sentence        the sentence to find the sources of
+     * @param numberOfSources the most number of lines to return
+     * @return the stemmed lines of the corpus that share the most fingerprints with the sentence,
+     *         the best one first
+     * @throws IOException if there is an error reading a line of the corpus
+     */
+    public ArrayList<SourceMatch> findSources(String sentence, int numberOfSources) throws IOException {
+        return engine.findSources(tokenizeSentence(sentence.split(" "), null), numberOfSources);
+    }
+
+    /**
+     * Finds the line of the corpus that the whole text is most similar to, if it is a near duplicate
+     * of one, by the MinHash signature of its processed and stemmed words, without scoring its sentences.
+     *
+     * @param text          the whole text of the session
+     * @param minSimilarity the lowest estimated similarity of the line, from 0 to 1
+     * @return the most similar line of the corpus, or null if no line is similar enough
+     * @throws IOException if there is an error reading the line from the corpus
+     */
+    public NearDuplicate findNearDuplicate(String text, double minSimilarity) throws IOException {
+        ArrayList<NearDuplicate> duplicates = engine.findNearDuplicates(tokenizeSentence(text.split("\\s+"), null), minSimilarity, 1);
+        return duplicates.isEmpty() ? null : duplicates.get(0);
+    }
+
+    //////////////////////////////
+
+    /**
+     * Processes and stems every word of a sentence once, and turns the stems into word IDs.
+     * A word of the sentence can become no stems (a stop word, or a word of less than 3 characters)
+     * or more than one, so the index of the first stem of each word is kept to map them back.
+     *
+     * @param tokens     the words of the sentence, as they are shown.
+     * @param firstWords the array that the index of the first stem of word i is written to at [i],
+     *                   and the number of stems at the end, or null if it is not needed.
+     * @return the IDs of the stems of the sentence.
+     */
+    private int[] tokenizeSentence(String[] tokens, int[] firstWords) {
+        StringBuilder stemmedSentence = new StringBuilder();
+        int numberOfStems = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            if (firstWords != null) firstWords[i] = numberOfStems;
+
+            String processedToken = engine.processText(tokens[i]);
+            if (processedToken.isEmpty()) continue;
+            for (String word: processedToken.split(" ")) {
+                if (numberOfStems++ > 0) stemmedSentence.append(' ');
+                stemmedSentence.append(stemmedWords.getOrDefault(word, word));
+            }
+        }
+        if (firstWords != null) firstWords[tokens.length] = numberOfStems;
+
+        return engine.tokenize(stemmedSentence.toString());
+    }
+
+    /**
+     * Calculates the plagiarism percentage of a sentence from the probabilities of its chunks,
+     * weighting the chunks of more words more.
+     */
+    private static double getScore(double[][] probabilities, int numberOfWords) {
+        if (isAllMaxGramChunksExist(probabilities, numberOfWords)) return 100.0;
+
+        double probabilitiesSum = 0;
+        int weightsSum = 0;
+        for (int gram = 2; gram <= GRAM; gram++) {
+            int weight = (gram * (gram +1)) / 2;
+
+            for (int i = gram; i <= numberOfWords; i++) {
+                double probability = probabilities[i - gram][gram];
+                if (probability != NOT_IN_MODEL) {
+                    probabilitiesSum += probability * weight;
+                    weightsSum += weight;
+                } else {
+                    weightsSum++;
+                }
+            }
+        }
+
+        double result = 100 * (probabilitiesSum/weightsSum);
+        return curveUp(result);
+    }
+
+    /**
+     * Gives every word of a sentence the highest probability among the chunks around it.
+     *
+     * @param tokens        the words of the sentence, as they are shown.
+     * @param firstWords    the index of the first stem of each word, from tokenizeSentence.
+     * @param probabilities the probabilities of the chunks of the stems, from getProbabilitiesOfChunks.
+     * @return the words of the sentence with their probabilities.
+     */
+    private static ArrayList<Token> getWordsWithProbability(String[] tokens, int[] firstWords, double[][] probabilities) {
+        ArrayList<Token> listOfWords = new ArrayList<>();
+        for (int i = 0; i < tokens.length; i++) {
+            double maxProbability = getMaxProbabilityAround(probabilities, firstWords[i], firstWords[i + 1]);
+            listOfWords.add(new Token(tokens[i], maxProbability));
+        }
+
+        return listOfWords;
+    }
+
+    /**
+     * Returns the highest probability of the chunks that contain a stem from first to end - 1, or,
+     * for a word without stems (first == end), of the chunks that start at first, end at first, or
+     * pass over it.
+     */
+    private static double getMaxProbabilityAround(double[][] probabilities, int first, int end) {
+        int numberOfWords = probabilities.length;
+        int lastStart = Math.min(Math.max(first, end - 1), numberOfWords - 1);
+
+        double maxProbability = 0;
+        for (int start = Math.max(0, first - GRAM); start <= lastStart; start++) {
+            for (int n = 1; n <= GRAM && start + n <= numberOfWords; n++) {
+                boolean isAround = (first < end) ? start + n > first : start + n >= first;
+                if (isAround && probabilities[start][n] != NOT_IN_MODEL)
+                    maxProbability = Math.max(maxProbability, probabilities[start][n]);
+            }
+        }
+
+        return maxProbability;
+    }
+
+    /**
+     * Check if all chunks of maximum gram size (determined by the GRAM variable)
+     * exist in the language model.
+     *
+     * @param probabilities the probabilities of the chunks of the sentence, from getProbabilitiesOfChunks
+     * @param numberOfWords the number of words of the sentence
+     * @return true if all chunks of maximum gram size exist in the language model,
+     *         false otherwise
+     */
+    private static boolean isAllMaxGramChunksExist(double[][] probabilities, int numberOfWords) {
+        for (int i = GRAM; i <= numberOfWords; i++) {
+            if (probabilities[i - GRAM][GRAM] == NOT_IN_MODEL)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Applies a mathematical function to the given score to increase its value. The
+     * function used is log(score+1) * 50.
+     *
+     * @param score the score to be increased
+     * @return the transformed score
+     */
+    private static double curveUp(double score) {
+        return (Math.log(score+1)/Math.log(10)) * 50;   //log(x+1)*50   //   https://www.desmos.com/calculator (try y=log(x+1)*50 and y=x)
+    }
+}
@@ -1,41 +1,148 @@
 package LanguageProcesses;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.zip.CRC32;
 
+import LanguageProcesses.Utils.ArabicNormalizer;
+import LanguageProcesses.Utils.ArlstemStemmer;
+import LanguageProcesses.Utils.MappedCorpusReader;
+import LanguageProcesses.Utils.StopWordMatcher;
 import LanguageProcesses.Utils.TextBuilder;
 
 public class Corpus {
     /**
      * initialize the input file that contains the messy corpus.
      * initialize the output file that will contain the clean corpus.
+     * initialize the output file that will contain the stemmed corpus when the corpus is cleaned and stemmed in one pass,
+     *      and the file that will contain the offset of the messy line of each stemmed line, followed by
+     *      the size of the messy corpus and the size of the stemmed corpus, so the source index can show
+     *      the lines of the corpus as they were before they were cleaned.
      * initialize the stop words file that contains the stop words list to be removed.
-     * initialize the stop words hash set that will contain the stop words list to be removed
-     *      after reading it from the file to use it in the removeStopWords method.
+     * initialize the manifest file that lists the shard files when the clean corpus is
+     *      saved as numbered shards instead of one file.
+     * initialize the checkpoint file that records how much of the messy corpus is already cleaned,
+     *      so the next incremental run only cleans the lines appended after it.
+     * initialize the charset used to read and write the corpus files.
+     * initialize the maximum size in bytes of one shard of the messy corpus when cleaning it in parallel.
+     * initialize the number of lines in one batch of the messy corpus when cleaning and stemming it in one pass,
+     *      and the marker that ends the queue of batches.
+     * initialize the stop words matcher that will contain the stop words list to be removed
+     *      after reading it from the file to use it in the removeStopWords method, it is immutable
+     *      and replaced as a whole when the stop words are read, so it is safe to share between threads.
+     * initialize the compiled pipeline that cleans each line of the messy corpus.
+     * initialize the stemmer used to stem the clean lines, it has no state so it is shared between threads.
      */
     private static final File INPUT_FILE = new File("Data/Corpus/MessyCorpus.txt");
     private static final File OUTPUT_FILE = new File("Data/Corpus/CleanCorpus.txt");
+    private static final File STEMMED_OUTPUT_FILE = new File("Data/Corpus/StemmedCorpus.txt");
+    private static final File STEMMED_OFFSETS_FILE = new File("Data/Corpus/StemmedCorpus.offsets.bin");
+    private static final File RANDOM_TEXTS_FILE = new File("Data/RandomTexts.txt");
     private static final File STOP_WORDS_FILE = new File("Data/StopWords.txt");
+    private static final File SHARDS_MANIFEST_FILE = new File("Data/Corpus/CleanCorpus.manifest.txt");
+    private static final File CHECKPOINT_FILE = new File("Data/Corpus/CleanCorpus.checkpoint.properties");
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+    private static final int MAX_SHARD_SIZE = 64 * 1024 * 1024;
+    private static final int LINES_PER_BATCH = 1024;
+    private static final Future<StemmedBatch> END_OF_BATCHES = CompletableFuture.completedFuture(null);
 
-    private static final HashSet<String> STOP_WORDS_HASHSET = new HashSet<>();
+    private static volatile StopWordMatcher STOP_WORDS_MATCHER = StopWordMatcher.EMPTY;
+
+    private static final Function<CharSequence, String> CLEANING_PIPELINE = new TextBuilder()
+            .normalizeText()
+            .removeStopWords()
+            .cleanTheLine()
+            .compile();
+    private static final ArlstemStemmer STEMMER = new ArlstemStemmer();
+
+    public static File getMessyCorpusFile() {return INPUT_FILE;}
+    public static File getStemmedOffsetsFile() {return STEMMED_OFFSETS_FILE;}
 
     //////////////////////////////
 
     /**
      * The main method of the program.
-     * Reads a list of common words (stop words) from a file, saving it to the HashSet,
+     * Reads a list of common words (stop words) from a file, saving it to the stop words matcher,
      * and then reads and cleans a text document (corpus), saving the cleaned version to a new file.
      *
-     * @param args not used in this program
+     * @param args optional flags:
+     *             "--parallel" to clean the corpus on all the available cores,
+     *             "--threads=N" to clean the corpus in parallel on N threads,
+     *             "--shards" to keep the clean corpus as numbered shard files plus a manifest,
+     *             "--incremental" to only clean the lines appended to the messy corpus since the last run,
+     *             "--stem" to clean and stem the corpus in one pass on all the available cores (or N threads)
+     *             and save the stemmed corpus with the offsets of its lines in the messy corpus,
+     *             without saving the clean corpus unless
+     *             "--keep-clean-corpus" is given too,
+     *             "--verify-normalizer" to only check that normalizeText gives the same output as
+     *             normalizeTextUsingRegex for every line of the random texts and of the messy corpus,
+     *             and exit with a non-zero status if any line differs.
      * @throws IOException if there is an error reading from or writing to a file
      */
     public static void main(String[] args) throws IOException {
+        int numberOfThreads = 0;
+        boolean keepShards = false;
+        boolean incremental = false;
+        boolean stem = false;
+        boolean keepCleanCorpus = false;
+        boolean verifyNormalizer = false;
+        for (String arg: args) {
+            if (arg.equals("--parallel")) numberOfThreads = Runtime.getRuntime().availableProcessors();
+            else if (arg.startsWith("--threads=")) numberOfThreads = Integer.parseInt(arg.substring("--threads=".length()));
+            else if (arg.equals("--shards")) keepShards = true;
+            else if (arg.equals("--incremental")) incremental = true;
+            else if (arg.equals("--stem")) stem = true;
+            else if (arg.equals("--keep-clean-corpus")) keepCleanCorpus = true;
+            else if (arg.equals("--verify-normalizer")) verifyNormalizer = true;
+            else throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+        if (verifyNormalizer) {
+            if (args.length != 1)
+                throw new IllegalArgumentException("--verify-normalizer can not be used with the other arguments");
+            int numberOfMismatches = verifyNormalizer(RANDOM_TEXTS_FILE) + verifyNormalizer(INPUT_FILE);
+            if (numberOfMismatches > 0) System.exit(1);
+            return;
+        }
+        if (keepShards && incremental)
+            throw new IllegalArgumentException("The incremental mode can not be used with --shards");
+        if (stem && (keepShards || incremental))
+            throw new IllegalArgumentException("The --stem mode can not be used with --shards or --incremental");
+
         readStopWordsFromFile();
-        readMessyCorpusAndSaveCleanCorpusToFile();
+        long inputSize = INPUT_FILE.length();
+
+        if (stem) {
+            int threads = (numberOfThreads > 0) ? numberOfThreads : Runtime.getRuntime().availableProcessors();
+            readMessyCorpusAndSaveStemmedCorpusToFile(inputSize, threads, keepCleanCorpus);
+            if (!keepCleanCorpus) return;
+        } else if (keepShards) {
+            readMessyCorpusAndSaveCleanCorpusToFileInParallel(inputSize, Math.max(numberOfThreads, 1), true);
+            Files.deleteIfExists(CHECKPOINT_FILE.toPath());
+            return;
+        } else if (incremental && cleanAppendedLinesOfMessyCorpus(inputSize)) {
+            return;
+        } else if (numberOfThreads > 0) {
+            readMessyCorpusAndSaveCleanCorpusToFileInParallel(inputSize, numberOfThreads, false);
+        } else {
+            readMessyCorpusAndSaveCleanCorpusToFile(inputSize);
+        }
+
+        CRC32 inputChecksum = new CRC32();
+        updateChecksum(inputChecksum, INPUT_FILE, 0, inputSize);
+        saveCheckpoint(inputSize, inputChecksum.getValue());
     }
 
     /**
-     * Reads a list of stop words from a file and adds them to a HashSet after normalizing them.
+     * Reads a list of stop words from a file and builds the stop words matcher from them
+     * after normalizing them.
      * The file containing the stop words should be located at the path specified by
      * the STOP_WORDS_FILE constant.
      * Each line in the file should contain one stop word.
@@ -43,13 +150,17 @@ public class Corpus {
      * @throws IOException if there is an error reading from the stop words file.
      */
     public static void readStopWordsFromFile() throws IOException {
-        BufferedReader inputReader = new BufferedReader(new FileReader(STOP_WORDS_FILE));
+        HashSet<String> stopWords = new HashSet<>();
+
+        BufferedReader inputReader = new BufferedReader(new FileReader(STOP_WORDS_FILE, CHARSET));
         String line;
         while ((line = inputReader.readLine()) != null) {
             String word = normalizeText(line);
-            STOP_WORDS_HASHSET.add(word.trim());
+            stopWords.add(word.trim());
         }
         inputReader.close();
+
+        STOP_WORDS_MATCHER = new StopWordMatcher(stopWords);
     }
 
     /**
@@ -64,35 +175,487 @@ public class Corpus {
      * - Removal of stop words
      * - Cleaning of line
      *
+     * @param inputSize the number of bytes of the input file to be cleaned.
      * @throws IOException if there is an error reading from the input file or
      *                     writing to the output file.
      */
-    private static void readMessyCorpusAndSaveCleanCorpusToFile() throws IOException {
-        BufferedReader inputReader = new BufferedReader(new FileReader(INPUT_FILE));
-        BufferedWriter outputWriter = new BufferedWriter(new FileWriter(OUTPUT_FILE));
+    private static void readMessyCorpusAndSaveCleanCorpusToFile(long inputSize) throws IOException {
+        MappedCorpusReader inputReader = new MappedCorpusReader(INPUT_FILE, 0, inputSize);
+        BufferedWriter outputWriter = new BufferedWriter(new FileWriter(OUTPUT_FILE, CHARSET));
 
-        String line;
-        while ((line = inputReader.readLine()) != null) {
-            TextBuilder textBuilder = new TextBuilder(line)
-                    .normalizeText()
-                    .removeStopWords()
-                    .cleanTheLine();
-            line = textBuilder.build();
+        cleanLines(inputReader, outputWriter);
+
+        inputReader.close();
+        outputWriter.close();
+    }
+
+    /**
+     * Reads a messy corpus from a file and cleans it in parallel, the same way as
+     * readMessyCorpusAndSaveCleanCorpusToFile does.
+     * The input file is split into byte ranges (shards) that start and end at line boundaries,
+     * each shard is cleaned by a worker of a fixed thread pool and saved to its own numbered file.
+     * After all the shards are cleaned, they are either joined in their original order into the
+     * OUTPUT_FILE, or kept as they are and listed in order in the SHARDS_MANIFEST_FILE.
+     *
+     * @param inputSize       the number of bytes of the input file to be cleaned.
+     * @param numberOfThreads the number of threads used to clean the shards.
+     * @param keepShards      true to keep the numbered shard files and write the manifest,
+     *                        false to join them into one clean corpus file.
+     * @throws IOException if there is an error reading from the input file or
+     *                     writing to the output files.
+     */
+    private static void readMessyCorpusAndSaveCleanCorpusToFileInParallel(long inputSize, int numberOfThreads, boolean keepShards) throws IOException {
+        ArrayList<long[]> shards = MappedCorpusReader.splitFileIntoShards(INPUT_FILE, inputSize, numberOfThreads, MAX_SHARD_SIZE);
+        ArrayList<File> shardFiles = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            shardFiles.add(getShardFile(i));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            ArrayList<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                long[] shard = shards.get(i);
+                File shardFile = shardFiles.get(i);
+                results.add(pool.submit(() -> cleanShard(shard[0], shard[1], shardFile)));
+            }
+
+            int[] numberOfLinesPerShard = new int[shards.size()];
+            for (int i = 0; i < results.size(); i++) {
+                numberOfLinesPerShard[i] = getResult(results.get(i));
+            }
+
+            if (keepShards)
+                saveShardsManifest(shards, shardFiles, numberOfLinesPerShard);
+            else
+                joinShardFiles(shardFiles, OUTPUT_FILE);
+
+        } finally {
+            pool.shutdownNow();
+            if (!keepShards) {
+                for (File shardFile: shardFiles) {
+                    Files.deleteIfExists(shardFile.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a messy corpus once, cleans and stems each line, and writes the stemmed corpus with the
+     * offset of the messy line of each stemmed line (and optionally the clean corpus) without reading
+     * any intermediate file.
+     * The work is split into three stages connected by a bounded queue: the calling thread reads
+     * batches of lines as slices of the mapped input file, a fixed thread pool decodes, cleans and
+     * stems each batch, and a writer thread writes the batches in their original order. The queue
+     * holds the futures of the batches in the order they were read, so the writer waits for each
+     * batch in turn, and the reader waits when the writer falls behind.
+     *
+     * @param inputSize       the number of bytes of the input file to be cleaned.
+     * @param numberOfThreads the number of threads used to clean and stem the batches.
+     * @param keepCleanCorpus true to also write the clean lines to the OUTPUT_FILE.
+     * @throws IOException if there is an error reading from the input file or
+     *                     writing to the output files.
+     */
+    private static void readMessyCorpusAndSaveStemmedCorpusToFile(long inputSize, int numberOfThreads, boolean keepCleanCorpus) throws IOException {
+        BlockingQueue<Future<StemmedBatch>> processedBatches = new ArrayBlockingQueue<>(numberOfThreads * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
+        ExecutorService writerThread = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<Integer> writer = writerThread.submit(() -> writeProcessedBatches(processedBatches, keepCleanCorpus, inputSize));
+
+            MappedCorpusReader inputReader = new MappedCorpusReader(INPUT_FILE, 0, inputSize);
+            ArrayList<ByteBuffer> batch = new ArrayList<>(LINES_PER_BATCH);
+            long[] batchOffsets = new long[LINES_PER_BATCH];
+            MappedCorpusReader.Line messyLine;
+            while ((messyLine = inputReader.nextLine()) != null) {
+                batchOffsets[batch.size()] = messyLine.getFileOffset();
+                batch.add(messyLine.bytes());
+                if (batch.size() == LINES_PER_BATCH) {
+                    ArrayList<ByteBuffer> lines = batch;
+                    long[] offsets = batchOffsets;
+                    putBatch(processedBatches, pool.submit(() -> cleanAndStemLines(lines, offsets)), writer);
+                    batch = new ArrayList<>(LINES_PER_BATCH);
+                    batchOffsets = new long[LINES_PER_BATCH];
+                }
+            }
+            if (!batch.isEmpty()) {
+                ArrayList<ByteBuffer> lines = batch;
+                long[] offsets = batchOffsets;
+                putBatch(processedBatches, pool.submit(() -> cleanAndStemLines(lines, offsets)), writer);
+            }
+            inputReader.close();
+
+            putBatch(processedBatches, END_OF_BATCHES, writer);
+            getResult(writer);
+        } finally {
+            pool.shutdownNow();
+            writerThread.shutdownNow();
+        }
+    }
+
+    /**
+     * Decodes, cleans and stems a batch of lines of the messy corpus, skipping the lines that
+     * become empty after cleaning.
+     *
+     * @param messyLines   the bytes of the messy lines.
+     * @param messyOffsets the offset of each messy line in the messy corpus.
+     * @return the clean lines, the stemmed lines and the offsets of their messy lines, in the same order.
+     */
+    private static StemmedBatch cleanAndStemLines(ArrayList<ByteBuffer> messyLines, long[] messyOffsets) {
+        ArrayList<String> cleanLines = new ArrayList<>(messyLines.size());
+        ArrayList<String> stemmedLines = new ArrayList<>(messyLines.size());
+        long[] offsets = new long[messyLines.size()];
+
+        for (int i = 0; i < messyLines.size(); i++) {
+            String line = CLEANING_PIPELINE.apply(CHARSET.decode(messyLines.get(i)));
+
+            if (!line.equals("")) {
+                offsets[cleanLines.size()] = messyOffsets[i];
+                cleanLines.add(line);
+                stemmedLines.add(STEMMER.stemSentence(line));
+            }
+        }
+
+        return new StemmedBatch(cleanLines.toArray(new String[0]), stemmedLines.toArray(new String[0]), Arrays.copyOf(offsets, cleanLines.size()));
+    }
+
+    /**
+     * Writes the processed batches in the order they are taken from the queue, until the
+     * END_OF_BATCHES marker is taken, then ends the offsets file with the sizes of the two corpora.
+     *
+     * @param processedBatches the queue of the futures of the batches.
+     * @param keepCleanCorpus  true to also write the clean lines to the OUTPUT_FILE.
+     * @param inputSize        the number of bytes of the messy corpus that are cleaned.
+     * @return the number of stemmed lines written.
+     * @throws IOException if a batch failed or there is an error writing to the output files.
+     * @throws InterruptedException if the thread was interrupted while waiting for a batch.
+     */
+    private static int writeProcessedBatches(BlockingQueue<Future<StemmedBatch>> processedBatches, boolean keepCleanCorpus, long inputSize) throws IOException, InterruptedException {
+        int numberOfLines = 0;
+
+        BufferedWriter stemmedWriter = new BufferedWriter(new FileWriter(STEMMED_OUTPUT_FILE, CHARSET));
+        DataOutputStream offsetsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(STEMMED_OFFSETS_FILE)));
+        BufferedWriter cleanWriter = keepCleanCorpus ? new BufferedWriter(new FileWriter(OUTPUT_FILE, CHARSET)) : null;
+        try {
+            Future<StemmedBatch> batch;
+            while ((batch = processedBatches.take()) != END_OF_BATCHES) {
+                StemmedBatch lines = getResult(batch);
+
+                for (int i = 0; i < lines.stemmedLines.length; i++) {
+                    stemmedWriter.write(lines.stemmedLines[i]);
+                    stemmedWriter.newLine();
+                    offsetsOut.writeLong(lines.messyOffsets[i]);
+                }
+                if (cleanWriter != null) {
+                    for (String cleanLine: lines.cleanLines) {
+                        cleanWriter.write(cleanLine);
+                        cleanWriter.newLine();
+                    }
+                }
+                numberOfLines += lines.stemmedLines.length;
+            }
+
+            stemmedWriter.close();
+            offsetsOut.writeLong(inputSize);
+            offsetsOut.writeLong(STEMMED_OUTPUT_FILE.length());
+        } finally {
+            stemmedWriter.close();
+            offsetsOut.close();
+            if (cleanWriter != null) cleanWriter.close();
+        }
+
+        return numberOfLines;
+    }
+
+    /**
+     * Puts the future of a batch into the queue, waiting while the queue is full, and failing
+     * early if the writer stopped because of an error.
+     *
+     * @param processedBatches the queue of the futures of the batches.
+     * @param batch            the future of the batch.
+     * @param writer           the future of the writer.
+     * @throws IOException if the writer failed or the thread was interrupted while waiting.
+     */
+    private static void putBatch(BlockingQueue<Future<StemmedBatch>> processedBatches, Future<StemmedBatch> batch, Future<Integer> writer) throws IOException {
+        try {
+            while (!processedBatches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (writer.isDone()) {
+                    getResult(writer);
+                    throw new IOException("The writer of the stemmed corpus stopped early");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cleaning the corpus");
+        }
+    }
+
+    /**
+     * Cleans only the lines appended to the messy corpus since the last run, and appends them
+     * to the clean corpus.
+     * The checkpoint of the last run is trusted only if the stop words did not change, the
+     * already cleaned part of the messy corpus still ends with a line feed and has the same
+     * checksum, and the clean corpus is not shorter than it was. The clean corpus is first cut
+     * back to its recorded length, so the lines of a run that failed in the middle are not
+     * written twice.
+     *
+     * @param inputSize the number of bytes of the input file to be cleaned.
+     * @return true if the appended lines were cleaned, false if the checkpoint is missing, has a missing
+     *         or invalid value, or does not match the files anymore and the whole corpus should be cleaned again.
+     * @throws IOException if there is an error reading from or writing to a file.
+     */
+    private static boolean cleanAppendedLinesOfMessyCorpus(long inputSize) throws IOException {
+        Properties checkpoint = readCheckpoint();
+        if (checkpoint == null) return false;
+
+        long inputOffset, outputLength, savedStopWordsChecksum, savedInputChecksum;
+        try {
+            inputOffset = Long.parseLong(checkpoint.getProperty("inputOffset"));
+            outputLength = Long.parseLong(checkpoint.getProperty("outputLength"));
+            savedStopWordsChecksum = Long.parseLong(checkpoint.getProperty("stopWordsChecksum"));
+            savedInputChecksum = Long.parseLong(checkpoint.getProperty("inputChecksum"));
+        } catch (NumberFormatException e) {
+            return false;    // a property is missing or corrupt
+        }
+        if (inputOffset < 0 || outputLength < 0) return false;
+
+        if (inputOffset > inputSize || !OUTPUT_FILE.exists() || OUTPUT_FILE.length() < outputLength)
+            return false;
+
+        CRC32 stopWordsChecksum = new CRC32();
+        updateChecksum(stopWordsChecksum, STOP_WORDS_FILE, 0, STOP_WORDS_FILE.length());
+        if (stopWordsChecksum.getValue() != savedStopWordsChecksum)
+            return false;
+
+        try (FileChannel channel = FileChannel.open(INPUT_FILE.toPath(), StandardOpenOption.READ)) {
+            if (inputOffset > 0 && MappedCorpusReader.findNextLineStart(channel, inputOffset) != inputOffset)
+                return false;    // the last cleaned line did not end with a line feed, so it may have been continued
+        }
+
+        CRC32 inputChecksum = new CRC32();
+        updateChecksum(inputChecksum, INPUT_FILE, 0, inputOffset);
+        if (inputChecksum.getValue() != savedInputChecksum)
+            return false;
+
+        try (FileChannel outputChannel = FileChannel.open(OUTPUT_FILE.toPath(), StandardOpenOption.WRITE)) {
+            outputChannel.truncate(outputLength);
+        }
+
+        MappedCorpusReader inputReader = new MappedCorpusReader(INPUT_FILE, inputOffset, inputSize);
+        BufferedWriter outputWriter = new BufferedWriter(new FileWriter(OUTPUT_FILE, CHARSET, true));
+
+        cleanLines(inputReader, outputWriter);
+
+        inputReader.close();
+        outputWriter.close();
+
+        updateChecksum(inputChecksum, INPUT_FILE, inputOffset, inputSize);
+        saveCheckpoint(inputSize, inputChecksum.getValue());
+        return true;
+    }
+
+    /**
+     * Cleans each line read by the given reader and writes the clean lines to the given writer,
+     * skipping the lines that become empty after cleaning.
+     * Each line is decoded into the reused chars buffer of the reader, so the only String
+     * built per line is the clean line itself.
+     *
+     * @param inputReader  the reader of the messy lines.
+     * @param outputWriter the writer of the clean lines.
+     * @return the number of clean lines written.
+     * @throws IOException if there is an error reading or writing a line.
+     */
+    private static int cleanLines(MappedCorpusReader inputReader, BufferedWriter outputWriter) throws IOException {
+        int numberOfLines = 0;
+
+        MappedCorpusReader.Line messyLine;
+        while ((messyLine = inputReader.nextLine()) != null) {
+            String line = CLEANING_PIPELINE.apply(messyLine.decodeToChars());
 
             if (!line.equals("")) {
                 outputWriter.write(line);
                 outputWriter.newLine();
+                numberOfLines++;
             }
         }
 
+        return numberOfLines;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Cleans the lines of one shard of the INPUT_FILE and saves them to the given shard file.
+     *
+     * @param start     the offset of the first byte of the shard.
+     * @param end       the offset after the last byte of the shard.
+     * @param shardFile the file the clean lines of the shard will be written to.
+     * @return the number of clean lines written.
+     * @throws IOException if there is an error reading from the input file or
+     *                     writing to the shard file.
+     */
+    private static int cleanShard(long start, long end, File shardFile) throws IOException {
+        MappedCorpusReader inputReader = new MappedCorpusReader(INPUT_FILE, start, end);
+        BufferedWriter outputWriter = new BufferedWriter(new FileWriter(shardFile, CHARSET));
+
+        int numberOfLines = cleanLines(inputReader, outputWriter);
+
         inputReader.close();
         outputWriter.close();
+        return numberOfLines;
+    }
+
+    /**
+     * Returns the result of a cleaning task, waiting for it if it is not done yet.
+     *
+     * @param result the future of the task.
+     * @return the result of the task.
+     * @throws IOException if the task failed or the thread was interrupted while waiting.
+     */
+    private static <T> T getResult(Future<T> result) throws IOException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Failed to clean a part of the corpus", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cleaning the corpus");
+        }
+    }
+
+    /**
+     * Returns the numbered file of a shard of the clean corpus, next to the OUTPUT_FILE.
+     * For example, the shard number 3 of "CleanCorpus.txt" is "CleanCorpus.shard-00003.txt".
+     *
+     * @param shardNumber the number of the shard.
+     * @return the file of the shard.
+     */
+    private static File getShardFile(int shardNumber) {
+        String name = OUTPUT_FILE.getName();
+        int extensionIndex = name.lastIndexOf('.');
+        String baseName = (extensionIndex == -1) ? name : name.substring(0, extensionIndex);
+        String extension = (extensionIndex == -1) ? "" : name.substring(extensionIndex);
+
+        return new File(OUTPUT_FILE.getParentFile(), String.format("%s.shard-%05d%s", baseName, shardNumber, extension));
+    }
+
+    /**
+     * Joins the given shard files in order into one file, copying their bytes as they are.
+     *
+     * @param shardFiles the shard files in the order they should be joined.
+     * @param outputFile the file that will contain all the shards.
+     * @throws IOException if there is an error reading from a shard file or writing to the output file.
+     */
+    private static void joinShardFiles(ArrayList<File> shardFiles, File outputFile) throws IOException {
+        try (FileChannel outputChannel = FileChannel.open(outputFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (File shardFile: shardFiles) {
+                try (FileChannel inputChannel = FileChannel.open(shardFile.toPath(), StandardOpenOption.READ)) {
+                    long position = 0;
+                    long size = inputChannel.size();
+                    while (position < size) {
+                        position += inputChannel.transferTo(position, size - position, outputChannel);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the manifest of the shard files, one line per shard in order, where each line
+     * consists of four columns: the shard file name, the start and end byte offsets of the
+     * shard in the messy corpus, and the number of clean lines in the shard.
+     *
+     * @param shards                the {start, end} byte offsets of the shards.
+     * @param shardFiles            the shard files.
+     * @param numberOfLinesPerShard the number of clean lines in each shard.
+     * @throws IOException if there is an error writing to the manifest file.
+     */
+    private static void saveShardsManifest(ArrayList<long[]> shards, ArrayList<File> shardFiles, int[] numberOfLinesPerShard) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(SHARDS_MANIFEST_FILE, CHARSET));
+        for (int i = 0; i < shardFiles.size(); i++) {
+            bw.write(shardFiles.get(i).getName() + "," + shards.get(i)[0] + "," + shards.get(i)[1] + "," + numberOfLinesPerShard[i]);
+            bw.newLine();
+        }
+        bw.close();
+    }
+
+    /**
+     * Updates a checksum with the bytes of a file between two offsets, reading them
+     * through a memory mapping.
+     *
+     * @param checksum the checksum to be updated.
+     * @param file     the file to be read.
+     * @param start    the offset of the first byte.
+     * @param end      the offset after the last byte.
+     * @throws IOException if there is an error reading from the file.
+     */
+    private static void updateChecksum(CRC32 checksum, File file, long start, long end) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = start;
+            while (position < end) {
+                long size = Math.min(MAX_SHARD_SIZE, end - position);
+                checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+                position += size;
+            }
+        }
+    }
+
+    /**
+     * Reads the checkpoint of the last run.
+     *
+     * @return the checkpoint, or null if there is no checkpoint, it can not be parsed, or it is not complete.
+     * @throws IOException if there is an error reading from the checkpoint file.
+     */
+    private static Properties readCheckpoint() throws IOException {
+        if (!CHECKPOINT_FILE.exists()) return null;
+
+        Properties checkpoint = new Properties();
+        try (Reader reader = new FileReader(CHECKPOINT_FILE, CHARSET)) {
+            checkpoint.load(reader);
+        } catch (IllegalArgumentException e) {
+            return null;    // a malformed escape in the file
+        }
+
+        for (String key: new String[]{"inputOffset", "inputChecksum", "stopWordsChecksum", "outputLength"}) {
+            if (checkpoint.getProperty(key) == null) return null;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Saves the checkpoint of the current run, which consists of the number of bytes of the messy
+     * corpus that are cleaned and their checksum, the checksum of the stop words file, and the
+     * length of the clean corpus.
+     *
+     * @param inputOffset   the number of bytes of the messy corpus that are cleaned.
+     * @param inputChecksum the checksum of these bytes.
+     * @throws IOException if there is an error reading from the stop words file or
+     *                     writing to the checkpoint file.
+     */
+    private static void saveCheckpoint(long inputOffset, long inputChecksum) throws IOException {
+        CRC32 stopWordsChecksum = new CRC32();
+        updateChecksum(stopWordsChecksum, STOP_WORDS_FILE, 0, STOP_WORDS_FILE.length());
+
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty("inputOffset", String.valueOf(inputOffset));
+        checkpoint.setProperty("inputChecksum", String.valueOf(inputChecksum));
+        checkpoint.setProperty("stopWordsChecksum", String.valueOf(stopWordsChecksum.getValue()));
+        checkpoint.setProperty("outputLength", String.valueOf(OUTPUT_FILE.length()));
+
+        try (Writer writer = new FileWriter(CHECKPOINT_FILE, CHARSET)) {
+            checkpoint.store(writer, "Cleaning checkpoint of " + INPUT_FILE.getName());
+        }
     }
 
     //////////////////////////////
 
     /**
      * Applies a series of normalization operations to a given text.
+     * The operations are applied in one pass using the precomputed tables of the ArabicNormalizer,
+     * which gives exactly the same output as normalizeTextUsingRegex.
      *
      * @param text The text to be normalized.
      * @return The normalized text.
@@ -101,6 +664,18 @@ public class Corpus {
      * https://en.wikipedia.org/wiki/Arabic_script_in_Unicode
      */
     public static String normalizeText(String text) {
+        return ArabicNormalizer.normalize(text);
+    }
+
+    /**
+     * Applies the normalization operations to a given text one by one, where each operation
+     * is a series of regex replacements.
+     * This is the reference implementation that the ArabicNormalizer tables are checked against.
+     *
+     * @param text The text to be normalized.
+     * @return The normalized text.
+     */
+    public static String normalizeTextUsingRegex(String text) {
         TextBuilder textBuilder = new TextBuilder(text)
                 .replaceUnderscoreWithSpace()   // to handle hashtags
                 .replaceSpecialCharactersWithWords()
@@ -113,25 +688,91 @@ public class Corpus {
         return textBuilder.build();
     }
 
+    /**
+     * Compares normalizeText with normalizeTextUsingRegex on every line of a file,
+     * and prints the lines where they differ.
+     *
+     * @param file the file to check.
+     * @return the number of lines where the outputs differ.
+     * @throws IOException if there is an error reading from the file.
+     */
+    private static int verifyNormalizer(File file) throws IOException {
+        int numberOfLines = 0;
+        int numberOfMismatches = 0;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                numberOfLines++;
+                String normalized = normalizeText(line);
+                String expected = normalizeTextUsingRegex(line);
+                if (!normalized.equals(expected)) {
+                    numberOfMismatches++;
+                    System.out.println(file.getName() + ":" + numberOfLines + "\texpected: " + expected + "\tgot: " + normalized);
+                }
+            }
+        }
+
+        System.out.println(file.getName() + ": " + numberOfMismatches + " mismatches out of " + numberOfLines + " lines");
+        return numberOfMismatches;
+    }
+
     /**
      * Removes stop words from a given text.
-     * The stop words are stored in a HashSet.
+     * The stop words are looked up in the stop words matcher directly over the text,
+     * without splitting it or building a String for each word.
      *
      * @param text The text from which stop words should be removed.
      * @return The text with stop words removed.
      */
     public static String removeStopWords(String text) {
-        String[] lineWords = text.split(" ");
+        return removeStopWords(text, STOP_WORDS_MATCHER);
+    }
 
-        StringBuilder sb = new StringBuilder();
-        for (String word: lineWords) {
-            if (!STOP_WORDS_HASHSET.contains(word)) {
-                sb.append(word).append(" ");
+    /**
+     * Removes the stop words of a given matcher from a given text, the same way as removeStopWords.
+     *
+     * @param text      The text from which stop words should be removed.
+     * @param stopWords The matcher of the stop words.
+     * @return The text with stop words removed.
+     */
+    public static String removeStopWords(String text, StopWordMatcher stopWords) {
+        StringBuilder sb = new StringBuilder(text.length() + 1);
+
+        int wordStart = 0;
+        while (wordStart <= text.length()) {
+            int wordEnd = text.indexOf(' ', wordStart);
+            if (wordEnd == -1) wordEnd = text.length();
+
+            if (!stopWords.matches(text, wordStart, wordEnd)) {
+                sb.append(text, wordStart, wordEnd).append(" ");
             }
+            wordStart = wordEnd + 1;
         }
 
-        text = sb.toString();
-        return text.trim();
+        return sb.toString().trim();
+    }
+
+    /**
+     * Returns the matcher of the stop words that were read last, which does not change
+     * when the stop words are read again.
+     *
+     * @return The stop words matcher.
+     */
+    public static StopWordMatcher getStopWordMatcher() {
+        return STOP_WORDS_MATCHER;
+    }
+
+    /**
+     * Checks if the chars of a given text between two indexes are a stop word.
+     *
+     * @param text  The text that contains the word.
+     * @param start The index of the first char of the word.
+     * @param end   The index after the last char of the word.
+     * @return true if the word is a stop word, false otherwise.
+     */
+    public static boolean isStopWord(CharSequence text, int start, int end) {
+        return STOP_WORDS_MATCHER.matches(text, start, end);
     }
 
     /**
@@ -543,4 +1184,22 @@ public class Corpus {
                 .replaceAll("ى", "ا");
         return textBuilder.build();
     }
-}
\ No newline at end of file
+
+    //////////////////////////////
+
+    /**
+     * A batch of the messy corpus after it is cleaned and stemmed, where the lines that became empty are skipped.
+     * Initialize the clean lines, the stemmed lines, and the offset of the messy line of each one, in the same order.
+     */
+    private static class StemmedBatch {
+        private final String[] cleanLines;
+        private final String[] stemmedLines;
+        private final long[] messyOffsets;
+
+        private StemmedBatch(String[] cleanLines, String[] stemmedLines, long[] messyOffsets) {
+            this.cleanLines = cleanLines;
+            this.stemmedLines = stemmedLines;
+            this.messyOffsets = messyOffsets;
+        }
+    }
+}
@@ -1,170 +1,587 @@
 package LanguageProcesses;
 
-import LanguageProcesses.Object.Chunk;
-import LanguageProcesses.Object.Token;
+import LanguageProcesses.Utils.ExternalNGramCounter;
+import LanguageProcesses.Utils.MappedCorpusReader;
+import LanguageProcesses.Utils.MappedLanguageModel;
+import LanguageProcesses.Utils.ModelCompactor;
+import LanguageProcesses.Utils.ModelIndex;
+import LanguageProcesses.Utils.NGramCountTable;
+import LanguageProcesses.Utils.SegmentedLanguageModel;
+import LanguageProcesses.Utils.SourceIndex;
+import LanguageProcesses.Utils.Vocabulary;
 
 import java.io.*;
-import java.util.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class LanguageModel {
     /**
      * Initializes constants for creating a language model.
      * GRAM is the number of consecutive words to be used as a token.
-     * MODEL_TABLE is a HashMap that will store the tokens and their frequency in the corpus.
+     * MODEL_TABLE is a table that will store the tokens and their frequency in the corpus,
+     *      where each token is keyed by the entry of its first n-1 words and the ID of its last word.
+     * VOCABULARY maps each stemmed word of the corpus to a dense integer ID.
      * INPUT_FILE is the file that contains the stemmed corpus.
-     * OUTPUT_FILE is the file where the language model will be saved.
+     * OUTPUT_FILE is the binary file where the language model and its vocabulary will be saved.
+     * FULL_MODEL_FILE is the file where the model with all its tokens and counts is kept when it is compacted.
+     * INDEX_FILE is the file where the perfect hash index of the model, used to score the text, will be saved.
+     * SOURCE_INDEX_FILE is the file where the fingerprint index of the lines of the stemmed corpus,
+     *      used to find the lines that a sentence may be copied from, will be saved.
+     * CSV_FILE is the file where the language model is exported to for inspection, when it is asked for.
+     * DELTA_FILE_PREFIX is the start of the name of each delta segment file, which is followed by its number.
+     * MAX_DELTA_SEGMENTS is the number of delta segments after which they are merged into the model file.
+     * MAX_SHARD_SIZE is the maximum size in bytes of one shard of the corpus when the model is built in parallel.
+     * SHARDS_PER_THREAD is the number of shards per thread, so the threads that finish early take more shards.
+     * BYTES_PER_ENTRY is the most memory that one n-gram takes while it is counted and sorted in the
+     *      out of core mode, used to turn the memory budget into a number of n-grams.
      * numberOfWordsInCorpus is a variable that will hold the total number of words in the corpus.
      */
     private static final int GRAM = 4;
-    private static final HashMap<String, Token> MODEL_TABLE = new HashMap<>();
+    private static NGramCountTable MODEL_TABLE = new NGramCountTable();
+    private static Vocabulary VOCABULARY = new Vocabulary();
     private static final File INPUT_FILE = new File("Data/Corpus/StemmedCorpus.txt");
-    private static final File OUTPUT_FILE = new File("Data/LanguageModel.csv");
+    private static final File OUTPUT_FILE = new File("Data/LanguageModel.bin");
+    private static final File FULL_MODEL_FILE = new File("Data/LanguageModel.full.bin");
+    private static final File INDEX_FILE = new File("Data/LanguageModel.idx");
+    private static final File SOURCE_INDEX_FILE = new File("Data/SourceIndex.bin");
+    private static final File CSV_FILE = new File("Data/LanguageModel.csv");
+    private static final String DELTA_FILE_PREFIX = "LanguageModel.delta-";
+    private static final int MAX_DELTA_SEGMENTS = 8;
 
-    private static int numberOfWordsInCorpus = 0;
+    private static final long MAX_SHARD_SIZE = 64 * 1024 * 1024;
+    private static final int SHARDS_PER_THREAD = 4;
+    private static final int BYTES_PER_ENTRY = 64;
+
+    private static long numberOfWordsInCorpus = 0;
 
     public static int getGram() {return GRAM;}
+    public static File getModelFile() {return OUTPUT_FILE;}
+    public static File getIndexFile() {return INDEX_FILE;}
+    public static File getSourceIndexFile() {return SOURCE_INDEX_FILE;}
+    public static File getCorpusFile() {return INPUT_FILE;}
 
     //////////////////////////////
 
     /**
      * The main method of the program.
-     * creates a model based on the stemmed corpus and saves the model to a CSV file.
+     * creates a model based on the stemmed corpus and saves the model with its vocabulary
+     * to a binary file, builds the index of the model and the source index of the corpus, and optionally exports it to a CSV file.
+     * When the model is compacted, the full model is saved to its own file and the compacted model
+     * is saved to the model file that is used by PlagiarismEngine.
+     * When a delta corpus is given, only the delta corpus is counted, into a new delta segment of the model.
+     * Otherwise the delta segments are deleted before the model is built, since the word IDs of the new
+     * model do not match theirs, so the text they counted must be in the stemmed corpus to be kept.
      *
-     * @param args not used in this program
+     * @param args optional flags:
+     *             "--parallel" to build the model on all the available cores,
+     *             "--threads=N" to build the model in parallel on N threads,
+     *             "--memory-budget=MB" to build the model and the source index out of core, counting at most
+     *             MB megabytes of n-grams in memory at once, for corpora that have too many n-grams for the heap,
+     *             "--csv" to also export the model to a CSV file,
+     *             "--min-count=N" to prune the tokens of 2 words or more that appear less than N times,
+     *             "--entropy-threshold=X" to prune the tokens of 2 words or more whose relative entropy is below X,
+     *             "--quantize=BITS" to save the probabilities as codes of 8 or 16 bits instead of the counts,
+     *             "--validate=FILE" to print how the scores of the sentences of a text file move
+     *             when they are checked with the compacted model instead of the full model,
+     *             "--delta=FILE" to count a stemmed delta corpus into a new delta segment of the model,
+     *             and merge the segments once there are MAX_DELTA_SEGMENTS of them,
+     *             "--merge-segments" to merge the delta segments into the model file.
      * @throws IOException if there is an error reading from or writing to a file
      */
     public static void main(String[] args) throws IOException {
-        createModel();
-        saveModelToCsv();
+        int numberOfThreads = 0;
+        int memoryBudget = 0;
+        boolean exportToCsv = false;
+        int minimumCount = 0;
+        double entropyThreshold = 0;
+        int quantizationBits = 0;
+        File validationFile = null;
+        File deltaFile = null;
+        boolean mergeSegments = false;
+        for (String arg: args) {
+            if (arg.equals("--parallel")) numberOfThreads = Runtime.getRuntime().availableProcessors();
+            else if (arg.startsWith("--threads=")) numberOfThreads = Integer.parseInt(arg.substring("--threads=".length()));
+            else if (arg.startsWith("--memory-budget=")) memoryBudget = Integer.parseInt(arg.substring("--memory-budget=".length()));
+            else if (arg.equals("--csv")) exportToCsv = true;
+            else if (arg.startsWith("--min-count=")) minimumCount = Integer.parseInt(arg.substring("--min-count=".length()));
+            else if (arg.startsWith("--entropy-threshold=")) entropyThreshold = Double.parseDouble(arg.substring("--entropy-threshold=".length()));
+            else if (arg.startsWith("--quantize=")) quantizationBits = Integer.parseInt(arg.substring("--quantize=".length()));
+            else if (arg.startsWith("--validate=")) validationFile = new File(arg.substring("--validate=".length()));
+            else if (arg.startsWith("--delta=")) deltaFile = new File(arg.substring("--delta=".length()));
+            else if (arg.equals("--merge-segments")) mergeSegments = true;
+            else throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+
+        if (deltaFile != null || mergeSegments) {
+            if (args.length != ((deltaFile != null) ? 1 : 0) + (mergeSegments ? 1 : 0))
+                throw new IllegalArgumentException("--delta and --merge-segments can not be used with the other arguments");
+
+            if (deltaFile != null) addDeltaSegment(deltaFile);
+            if (mergeSegments || openModelAndDeltaSegments().size() - 1 >= MAX_DELTA_SEGMENTS) mergeSegments();
+            return;
+        }
+        int numberOfDeltaFiles = getDeltaFiles(0).size();
+        if (numberOfDeltaFiles > 0) {
+            deleteDeltaFiles(Integer.MAX_VALUE);
+            System.out.println("Deleted " + numberOfDeltaFiles + " delta segments, their text is only counted if it is in " + INPUT_FILE);
+        }
+        if (numberOfThreads > 0 && memoryBudget > 0)
+            throw new IllegalArgumentException("The parallel mode can not be used with --memory-budget");
+
+        ModelCompactor compactor = (minimumCount > 1 || entropyThreshold > 0 || quantizationBits > 0)
+                ? new ModelCompactor(minimumCount, entropyThreshold, quantizationBits) : null;
+        if (validationFile != null && compactor == null)
+            throw new IllegalArgumentException("--validate needs --min-count, --entropy-threshold or --quantize to compact the model");
+
+        File modelFile = (compactor != null) ? FULL_MODEL_FILE : OUTPUT_FILE;
+        if (compactor == null) Files.deleteIfExists(FULL_MODEL_FILE.toPath());
+        if (memoryBudget > 0) {
+            createAndSaveModelOutOfCore(memoryBudget, modelFile);
+        } else {
+            if (numberOfThreads > 0)
+                createModelInParallel(numberOfThreads);
+            else
+                createModel();
+            saveModel(modelFile, 0);
+        }
+
+        if (compactor != null) {
+            MappedLanguageModel fullModel = new MappedLanguageModel(FULL_MODEL_FILE);
+            compactor.compact(fullModel, OUTPUT_FILE);
+            printCompactionReport(fullModel, new MappedLanguageModel(OUTPUT_FILE));
+        }
+
+        MappedLanguageModel model = new MappedLanguageModel(OUTPUT_FILE);
+        buildModelIndex(model);
+        File temporarySourceIndexFile = new File(SOURCE_INDEX_FILE.getPath() + ".tmp");
+        if (memoryBudget > 0)
+            SourceIndex.build(INPUT_FILE, model.getVocabulary(), temporarySourceIndexFile, getMaxEntriesInMemory(memoryBudget));
+        else
+            SourceIndex.build(INPUT_FILE, model.getVocabulary(), temporarySourceIndexFile);
+        Files.move(temporarySourceIndexFile.toPath(), SOURCE_INDEX_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (exportToCsv) model.exportToCsv(CSV_FILE);
+        if (validationFile != null) printScoreShift(validationFile, new MappedLanguageModel(FULL_MODEL_FILE));
     }
 
     /**
      * Creates a language model based on the stemmed corpus.
-     * Reads the stemmed corpus line by line, splits each line into chunks of
-     * GRAM consecutive words and
-     * adds each chunk as a token to a HashMap. The token is the key and its value
-     * is an object that holds the token's gram, count and probability in the corpus.
+     * Reads the stemmed corpus line by line, turns each line into the IDs of its words,
+     * and counts every run of 1 to GRAM consecutive IDs as a token in the MODEL_TABLE.
      *
      * @throws IOException if there is an error reading from the stemmed corpus file.
      */
     private static void createModel() throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(INPUT_FILE));
+        MappedCorpusReader reader = new MappedCorpusReader(INPUT_FILE);
+        numberOfWordsInCorpus = countTokens(reader, VOCABULARY, MODEL_TABLE);
+        reader.close();
+    }
 
-        String line;
-        while ((line = reader.readLine()) != null) {
-            ArrayList<Chunk> chunks = new ArrayList<>();
+    /**
+     * Creates the same language model as createModel, on several threads.
+     * The stemmed corpus is split into shards that start and end at line boundaries, and each
+     * shard is counted by a fork join task into its own vocabulary and table. The results of
+     * neighbouring shards are merged in pairs while the other tasks are still running, where the
+     * words of the right shard that are new to the left one are added to the left vocabulary in order,
+     * so the final vocabulary and counts are exactly the same as when the corpus is read in one pass.
+     *
+     * @param numberOfThreads the number of threads used to count the shards.
+     * @throws IOException if there is an error reading from the stemmed corpus file.
+     */
+    private static void createModelInParallel(int numberOfThreads) throws IOException {
+        ArrayList<long[]> shards = MappedCorpusReader.splitFileIntoShards(INPUT_FILE, INPUT_FILE.length(),
+                numberOfThreads * SHARDS_PER_THREAD, MAX_SHARD_SIZE);
+        if (shards.isEmpty()) return;
 
-            for (int i = 1; i <= GRAM; i++) {
-                ArrayList<String> arrayOfChunksAsStrings = splitStringIntoChunksOfNWords(line, i);
-                for (String chunkString: arrayOfChunksAsStrings) {
-                    chunks.add(new Chunk(chunkString, i));
-                }
-            }
+        ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+        try {
+            ShardModel model = pool.invoke(new ShardCounter(shards, 0, shards.size()));
+            MODEL_TABLE = model.table;
+            VOCABULARY = model.vocabulary;
+            numberOfWordsInCorpus = model.numberOfWords;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Turns a memory budget into the number of n-grams counted in memory at once in the out of core mode.
+     *
+     * @param memoryBudget the number of megabytes used to count the n-grams in memory.
+     * @return the number of n-grams.
+     */
+    private static int getMaxEntriesInMemory(int memoryBudget) {
+        // half the size of a table at most, so the n-grams of the line that fills the table still fit in it
+        return (int) Math.min(NGramCountTable.MAX_SIZE / 2, memoryBudget * 1024L * 1024L / BYTES_PER_ENTRY);
+    }
 
-            for (Chunk chunk: chunks) {
-                if (chunk.numberOfWords == 1) numberOfWordsInCorpus++;
+    /**
+     * Creates the same language model as createModel and saves it to the model file, in a fixed
+     * amount of memory for the n-grams however big the corpus is (only the vocabulary is kept
+     * in memory as a whole).
+     * The tokens are counted in a bounded table that is saved to a sorted run file whenever it is
+     * full, then the runs are merged and each token is written with its total count as soon as it is
+     * merged. Since every token comes right after its n-1 gram prefix and the other tokens that extend
+     * it, the tokens are merged in the order the trie of the model file is written in.
+     *
+     * @param memoryBudget the number of megabytes used to count the tokens in memory.
+     * @param file         the model file.
+     * @throws IOException if there is an error reading from the stemmed corpus file, or
+     *                     writing to a run file or the model file.
+     */
+    private static void createAndSaveModelOutOfCore(int memoryBudget, File file) throws IOException {
+        int maxEntriesInMemory = getMaxEntriesInMemory(memoryBudget);
+        File runsDirectory = file.getAbsoluteFile().getParentFile();
 
-                String tokenString = chunk.text.trim();
-                Token token = MODEL_TABLE.get(tokenString);
+        try (ExternalNGramCounter counter = new ExternalNGramCounter(runsDirectory, maxEntriesInMemory)) {
+            MappedCorpusReader reader = new MappedCorpusReader(INPUT_FILE);
+            MappedCorpusReader.Line stemmedLine;
+            while ((stemmedLine = reader.nextLine()) != null) {
+                int[] words = VOCABULARY.tokenizeAndAdd(stemmedLine.decodeToChars());
+                numberOfWordsInCorpus += words.length;
 
-                if (token == null) {
-                    token = new Token(tokenString, chunk.numberOfWords);
-                    MODEL_TABLE.put(tokenString, token);
+                countTokensOfLine(words, counter.getTable());
+                counter.spillIfFull();
+            }
+            reader.close();
 
-                } else {
-                    token.count++;
-                }
+            try (MappedLanguageModel.Writer writer = new MappedLanguageModel.Writer(file, GRAM)) {
+                counter.merge(writer::add);
+                writer.finish(VOCABULARY, numberOfWordsInCorpus);
             }
         }
-
-        reader.close();
-        setProbabilities();
     }
 
     /**
-     * Calculates the probability of each token in the language model.
-     * For unigrams (tokens with a gram value of 1), the probability is calculated
-     * by dividing the token's count by the total number of words in the corpus.
-     * For n-grams (tokens with a gram value greater than 1), the probability is
-     * calculated by dividing the token's count by the count of the n-1 gram token.
+     * Reads the lines of a reader, turns each line into the IDs of its words, and counts every
+     * run of 1 to GRAM consecutive IDs as a token in the given table.
+     *
+     * @param reader     the reader of the stemmed lines.
+     * @param vocabulary the vocabulary that the new words are added to.
+     * @param table      the table that the tokens are counted in.
+     * @return the number of words read.
+     * @throws IOException if there is an error reading a line.
      */
-    private static void setProbabilities() {
-        for(Map.Entry<String, Token> entry : MODEL_TABLE.entrySet()) {
-            Token token = entry.getValue();
+    private static long countTokens(MappedCorpusReader reader, Vocabulary vocabulary, NGramCountTable table) throws IOException {
+        long numberOfWords = 0;
 
-            if (token.gram == 1)
-                token.probability = token.count / (double)numberOfWordsInCorpus;
+        MappedCorpusReader.Line stemmedLine;
+        while ((stemmedLine = reader.nextLine()) != null) {
+            int[] words = vocabulary.tokenizeAndAdd(stemmedLine.decodeToChars());
+            numberOfWords += words.length;
+            countTokensOfLine(words, table);
+        }
 
-            else {
-                String chunkWithoutLastWord = removeTheLastWordFromString(token.text);
-                Token tokenWithoutLastWord = MODEL_TABLE.get(chunkWithoutLastWord);
+        return numberOfWords;
+    }
 
-                token.probability = token.count / (double)tokenWithoutLastWord.count;
+    /**
+     * Counts every run of 1 to GRAM consecutive IDs of a line as a token in the given table.
+     * The tokens that start at the same word are counted together, each one as the
+     * previous token plus one more word, so every word is hashed once per token.
+     *
+     * @param words the IDs of the words of the line.
+     * @param table the table that the tokens are counted in.
+     */
+    private static void countTokensOfLine(int[] words, NGramCountTable table) {
+        for (int i = 0; i < words.length; i++) {
+            int context = NGramCountTable.ROOT;
+            for (int n = 1; n <= GRAM && i + n <= words.length; n++) {
+                context = table.increment(context, words[i + n - 1]);
             }
         }
     }
 
     /**
-     * Saves the language model to a CSV file.
-     * Writes each token of the language model as a row in the CSV file, where each
-     * row consists of four columns:
-     * the token's text, its gram value, its count in the corpus, and its
-     * probability.
+     * Saves the language model and its vocabulary to the binary model file.
+     * The tokens are written as a trie in depth first order with the count of each token,
+     * the probabilities are calculated from the counts when the model is queried.
      *
-     * @throws IOException if there is an error writing to the CSV file.
+     * @param file        the model file.
+     * @param deltaNumber the number of the delta segment saved, or 0 for the model of the corpus.
+     * @throws IOException if there is an error writing to the model file.
      */
-    private static void saveModelToCsv() throws IOException {
-        BufferedWriter bw = new BufferedWriter(new FileWriter(OUTPUT_FILE));
-        for (Map.Entry<String, Token> entry : MODEL_TABLE.entrySet()) {
-            Token value = entry.getValue();
-            bw.write(value.text + "," + value.gram + "," + value.count + "," + value.probability);
-            bw.newLine();
+    private static void saveModel(File file, int deltaNumber) throws IOException {
+        try (MappedLanguageModel.Writer writer = new MappedLanguageModel.Writer(file, GRAM)) {
+            int[] ids = new int[GRAM];
+            for (int entry: MODEL_TABLE.getSortedEntries()) {
+                int gram = MODEL_TABLE.getWordIds(entry, ids);
+                writer.add(ids, gram, MODEL_TABLE.getCount(entry));
+            }
+            writer.finish(VOCABULARY, numberOfWordsInCorpus, deltaNumber);
         }
-        bw.close();
     }
 
     //////////////////////////////
 
     /**
-     * Splits a string into chunks of n consecutive words.
-     * For example, if the string is "I am a student from" and n is 3, the method will
-     * return an ArrayList of two strings: "I am a", "am a student" and "a student from".
+     * Returns the delta segment files that are not merged into the model yet, in the order they were added.
      *
-     * @param text                   the string to be split
-     * @param numberOfWordsPerString the number of consecutive words in each chunk
-     * @return An ArrayList of chunks, where each chunk is a string of the specified
-     *         number of words.
+     * @param deltaNumber the number of the last delta segment merged into the model file.
+     * @return the delta segment files with a greater number, empty if the model has no delta segments.
      */
+    private static ArrayList<File> getDeltaFiles(int deltaNumber) {
+        ArrayList<File> deltaFiles = new ArrayList<>();
+        File[] files = OUTPUT_FILE.getAbsoluteFile().getParentFile().listFiles();
+        if (files == null) return deltaFiles;
 
-    public static ArrayList<String> splitStringIntoChunksOfNWords(String text, int numberOfWordsPerString) {
-        ArrayList<String> arrayOfChunks = new ArrayList<>();
-        String[] words = text.split(" ");
+        for (File file: files) {
+            if (getDeltaNumber(file) > deltaNumber) deltaFiles.add(file);
+        }
+        deltaFiles.sort((first, second) -> Integer.compare(getDeltaNumber(first), getDeltaNumber(second)));
+        return deltaFiles;
+    }
 
-        for (int i = numberOfWordsPerString; i <= words.length; i++) {
-            StringBuilder chunk = new StringBuilder();
-            for (int j = numberOfWordsPerString; j > 0; j--) {
-                chunk.append(words[i - j]).append(" ");
+    /**
+     * Maps the model file and the delta segments that are not merged into it yet.
+     * The delta segments with a number up to the one recorded in the model file are already counted
+     * in it, so they are skipped even if they were not deleted after the merge. If a merge replaces
+     * the model file while the segments are mapped, they are mapped again from the merged model, so the
+     * segments never count a delta segment twice and never miss one that was deleted after its merge.
+     *
+     * @return the model first, followed by its delta segments in the order they were added.
+     * @throws IOException if there is an error mapping a file.
+     */
+    public static ArrayList<MappedLanguageModel> openModelAndDeltaSegments() throws IOException {
+        while (true) {
+            ArrayList<MappedLanguageModel> segments = new ArrayList<>();
+            segments.add(new MappedLanguageModel(OUTPUT_FILE));
+            try {
+                for (File deltaFile: getDeltaFiles(segments.get(0).getDeltaNumber())) {
+                    segments.add(new MappedLanguageModel(deltaFile));
+                }
+            } catch (NoSuchFileException e) {
+                continue;   // the segment was merged and deleted meanwhile
             }
-            arrayOfChunks.add(chunk.toString().trim());
+
+            if (MappedLanguageModel.readDeltaNumber(OUTPUT_FILE) == segments.get(0).getDeltaNumber()) return segments;
         }
+    }
+
+    /**
+     * Counts a stemmed delta corpus into a new delta segment of the model, so the time it takes
+     * depends on the size of the delta corpus and not on the size of the whole corpus.
+     * The words of the delta corpus that are new to the model are added after the vocabulary of
+     * the last segment, so every word keeps its ID. The segment is written to a temporary file and
+     * then renamed, so a detector that starts meanwhile never maps half a segment.
+     * The segment is numbered after the last segment, and after the last segment merged into the model.
+     * A delta segment can not be added to a compacted model, since the segments are summed with their
+     * counts: a quantized model has none, and the counts of the tokens that a pruned model dropped
+     * would only come from the delta segments.
+     *
+     * @param deltaFile the stemmed delta corpus, with one line per sentence like the stemmed corpus.
+     * @throws IOException if there is an error reading a file or writing the segment.
+     * @throws IllegalStateException if the model is compacted.
+     */
+    private static void addDeltaSegment(File deltaFile) throws IOException {
+        ArrayList<MappedLanguageModel> segments = openModelAndDeltaSegments();
+        if (segments.get(0).isQuantized() || FULL_MODEL_FILE.exists())
+            throw new IllegalStateException("Delta segments can not be added to a compacted model, build the model again without --min-count, --entropy-threshold or --quantize");
+        MappedLanguageModel lastSegment = segments.get(segments.size() - 1);
+        VOCABULARY = lastSegment.getVocabulary();
+        deleteDeltaFiles(segments.get(0).getDeltaNumber());
+
+        MappedCorpusReader reader = new MappedCorpusReader(deltaFile);
+        numberOfWordsInCorpus = countTokens(reader, VOCABULARY, MODEL_TABLE);
+        reader.close();
 
-        return arrayOfChunks;
+        int number = lastSegment.getDeltaNumber() + 1;
+        File segmentFile = new File(OUTPUT_FILE.getParentFile(), DELTA_FILE_PREFIX + number + ".bin");
+        File temporaryFile = new File(segmentFile.getPath() + ".tmp");
+        saveModel(temporaryFile, number);
+        Files.move(temporaryFile.toPath(), segmentFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Added " + segmentFile + " with " + numberOfWordsInCorpus + " words");
     }
 
     /**
-     * Removes the last word from a string.
-     * For example, if the string is "I am a student", the method will return "I am a".
+     * Merges the model file and its delta segments into the model file, with the summed count of every
+     * token, and builds the index of the merged model. The merged model is written to a temporary file
+     * and then renamed over the model file, so the detector can keep using the segments until it is done.
+     * The merge is an offline step of this program, run by --merge-segments or by --delta once there are
+     * MAX_DELTA_SEGMENTS segments, while the running detectors keep answering from the segments.
+     * The merged model records the number of its last delta segment, so the merged segments are skipped
+     * from then on even if the process stops before they are deleted, and the delta segments that are
+     * added while they are merged are kept as the segments of the merged model.
      *
-     * @param text the string from which the last word will be removed
-     * @return the string without the last word
+     * @throws IOException if there is an error mapping the segments or writing the merged model.
      */
-    private static String removeTheLastWordFromString(String text) {
-        int lastIndex = text.lastIndexOf(" ");
+    private static void mergeSegments() throws IOException {
+        ArrayList<MappedLanguageModel> segments = openModelAndDeltaSegments();
+        deleteDeltaFiles(segments.get(0).getDeltaNumber());
+        if (segments.size() == 1) return;
 
-        if (lastIndex == -1)
-            return "";
+        File temporaryFile = new File(OUTPUT_FILE.getPath() + ".tmp");
+        new SegmentedLanguageModel(segments).merge(temporaryFile);
+        Files.move(temporaryFile.toPath(), OUTPUT_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deleteDeltaFiles(segments.get(segments.size() - 1).getDeltaNumber());
 
+        buildModelIndex(new MappedLanguageModel(OUTPUT_FILE));
+        System.out.println("Merged " + (segments.size() - 1) + " delta segments into " + OUTPUT_FILE);
+    }
+
+    /**
+     * Builds the index of a model into a temporary file and renames it over the index file, like the
+     * model file, so a detector that still has the old index mapped never reads it truncated.
+     * If the index can not be built, the old index is deleted, since it does not match the model.
+     *
+     * @param model the language model.
+     * @throws IOException if there is an error writing or renaming the index file.
+     */
+    private static void buildModelIndex(MappedLanguageModel model) throws IOException {
+        File temporaryFile = new File(INDEX_FILE.getPath() + ".tmp");
+        if (ModelIndex.build(model, temporaryFile))
+            Files.move(temporaryFile.toPath(), INDEX_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         else
-            return text.substring(0, lastIndex).trim();
+            Files.deleteIfExists(INDEX_FILE.toPath());
+    }
+
+    /**
+     * Deletes the delta segment files up to a number, which are merged into the model file.
+     *
+     * @param deltaNumber the number of the last delta segment to delete.
+     * @throws IOException if a file can not be deleted.
+     */
+    private static void deleteDeltaFiles(int deltaNumber) throws IOException {
+        for (File deltaFile: getDeltaFiles(0)) {
+            if (getDeltaNumber(deltaFile) <= deltaNumber) Files.deleteIfExists(deltaFile.toPath());
+        }
+    }
+
+    /**
+     * Returns the number of a delta segment file from its name.
+     *
+     * @return the number of the segment, or 0 if the file is not a delta segment file.
+     */
+    private static int getDeltaNumber(File file) {
+        String name = file.getName();
+        if (!name.startsWith(DELTA_FILE_PREFIX) || !name.endsWith(".bin")) return 0;
+
+        try {
+            return Integer.parseInt(name.substring(DELTA_FILE_PREFIX.length(), name.length() - ".bin".length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Prints the number of tokens of each gram and the size of the model file, before and after
+     * the model is compacted.
+     *
+     * @param fullModel      the full model.
+     * @param compactedModel the compacted model.
+     */
+    private static void printCompactionReport(MappedLanguageModel fullModel, MappedLanguageModel compactedModel) {
+        for (int n = 1; n <= GRAM; n++) {
+            System.out.println(n + "-grams: " + fullModel.size(n) + " -> " + compactedModel.size(n));
+        }
+        System.out.println("Model file: " + FULL_MODEL_FILE.length() + " -> " + OUTPUT_FILE.length() + " bytes");
+    }
+
+    /**
+     * Checks every sentence of a validation file with the full model and with the compacted model,
+     * and prints how much the scores moved, so the memory saved by compacting can be weighed against
+     * the fidelity lost. The text is stemmed and split into sentences the same way the application does.
+     *
+     * @param validationFile the text file of the sentences, in UTF-8.
+     * @param fullModel      the full model.
+     * @throws IOException if there is an error reading a file or stemming the text.
+     */
+    private static void printScoreShift(File validationFile, MappedLanguageModel fullModel) throws IOException {
+        int numberOfSentences = 0;
+        int numberOfShiftedSentences = 0;
+        double sumOfShifts = 0;
+        double maxShift = 0;
+        try (PlagiarismEngine engine = PlagiarismEngine.load(null)) {    // loads the compacted model with its index
+            PlagiarismEngine fullEngine = engine.withLanguageModel(fullModel);
+            for (String text: Files.readAllLines(validationFile.toPath(), StandardCharsets.UTF_8)) {
+                CheckSession session = engine.newSession(text);
+                CheckSession fullSession = fullEngine.newSession(text);
+                for (String sentence: text.split("[.\n]")) {
+                    double compactedScore;
+                    try {
+                        compactedScore = session.getPlagiarismOfSentence(sentence);
+                    } catch (IllegalArgumentException e) {
+                        continue;    // too short to be checked
+                    }
+                    double shift = Math.abs(compactedScore - fullSession.getPlagiarismOfSentence(sentence));
+
+                    numberOfSentences++;
+                    sumOfShifts += shift;
+                    maxShift = Math.max(maxShift, shift);
+                    if (shift >= 1) numberOfShiftedSentences++;
+                }
+            }
+        }
+
+        System.out.println("Validation sentences: " + numberOfSentences);
+        System.out.printf("Mean score shift: %.4f, max score shift: %.4f%n", sumOfShifts / Math.max(numberOfSentences, 1), maxShift);
+        System.out.println("Sentences whose score moved by 1 or more: " + numberOfShiftedSentences);
+    }
+
+    //////////////////////////////
+
+    /**
+     * The vocabulary, the token counts and the number of words of a range of shards.
+     */
+    private static class ShardModel {
+        private final Vocabulary vocabulary = new Vocabulary();
+        private final NGramCountTable table = new NGramCountTable();
+        private long numberOfWords = 0;
+
+        /**
+         * Adds the model of the shards that come right after the shards of this model.
+         */
+        private void merge(ShardModel next) {
+            table.addAll(next.table, vocabulary.addAll(next.vocabulary));
+            numberOfWords += next.numberOfWords;
+        }
+    }
+
+    /**
+     * A fork join task that counts a range of shards, by splitting it in two halves,
+     * counting them in parallel and merging the right half into the left one.
+     */
+    private static class ShardCounter extends RecursiveTask<ShardModel> {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<long[]> shards;
+        private final int from;
+        private final int to;
+
+        private ShardCounter(ArrayList<long[]> shards, int from, int to) {
+            this.shards = shards;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ShardModel compute() {
+            if (to - from == 1) return countShard(shards.get(from));
+
+            int middle = (from + to) >>> 1;
+            ShardCounter left = new ShardCounter(shards, from, middle);
+            left.fork();
+            ShardModel right = new ShardCounter(shards, middle, to).compute();
+
+            ShardModel model = left.join();
+            model.merge(right);
+            return model;
+        }
+
+        private static ShardModel countShard(long[] shard) {
+            ShardModel model = new ShardModel();
+            try (MappedCorpusReader reader = new MappedCorpusReader(INPUT_FILE, shard[0], shard[1])) {
+                model.numberOfWords = countTokens(reader, model.vocabulary, model.table);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return model;
+        }
     }
 }
@@ -0,0 +1,13 @@
+package LanguageProcesses.Object;
+
+public class NearDuplicate {
+    public long lineOffset;
+    public double similarity;
+    public String snippet;
+
+    public NearDuplicate(long lineOffset, double similarity, String snippet) {
+        this.lineOffset = lineOffset;
+        this.similarity = similarity;
+        this.snippet = snippet;
+    }
+}
@@ -0,0 +1,13 @@
+package LanguageProcesses.Object;
+
+import java.util.ArrayList;
+
+public class SentenceScore {
+    public double score;
+    public ArrayList<Token> words;
+
+    public SentenceScore(double score, ArrayList<Token> words) {
+        this.score = score;
+        this.words = words;
+    }
+}
@@ -0,0 +1,13 @@
+package LanguageProcesses.Object;
+
+public class SourceMatch {
+    public long lineOffset;
+    public int sharedFingerprints;
+    public String snippet;
+
+    public SourceMatch(long lineOffset, int sharedFingerprints, String snippet) {
+        this.lineOffset = lineOffset;
+        this.sharedFingerprints = sharedFingerprints;
+        this.snippet = snippet;
+    }
+}
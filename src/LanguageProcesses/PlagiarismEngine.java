@@ -0,0 +1,316 @@
+package LanguageProcesses;
+
+import LanguageProcesses.Object.NearDuplicate;
+import LanguageProcesses.Object.SourceMatch;
+import LanguageProcesses.Utils.ArlstemStemmer;
+import LanguageProcesses.Utils.BloomFilteredLookup;
+import LanguageProcesses.Utils.CachingStemmer;
+import LanguageProcesses.Utils.MappedLanguageModel;
+import LanguageProcesses.Utils.ModelIndex;
+import LanguageProcesses.Utils.NGramLookup;
+import LanguageProcesses.Utils.PythonStemmerPool;
+import LanguageProcesses.Utils.SegmentedLanguageModel;
+import LanguageProcesses.Utils.SourceIndex;
+import LanguageProcesses.Utils.StemDictionary;
+import LanguageProcesses.Utils.StemmerService;
+import LanguageProcesses.Utils.TextBuilder;
+import LanguageProcesses.Utils.Vocabulary;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Function;
+
+/**
+ * The plagiarism detector, an immutable snapshot of the language model, its vocabulary, the stop words
+ * and the stemmer, which is loaded once and shared by all the checks.
+ * Every check of a text is a CheckSession of its own that holds the stems of the text, so any number of
+ * checks can score at once on the same engine without locks, since nothing is written after it is loaded.
+ * The engine is closed when it is no longer used, to stop the python stemmer workers and close the source index.
+ */
+public class PlagiarismEngine implements Closeable {
+    /**
+     * Initialize the gram size used to split the text into chunks.
+     * Initialize the probability given to the chunks that are not in the language model.
+     * Initialize the maximum number of words that are not in the stem dictionary to keep in the cache.
+     * Initialize the memory mapped language model (or its perfect hash index when it is built) behind the
+     *      Bloom filters of the model, or its segments when it has delta segments, which is queried by
+     *      walking along the word IDs of each chunk.
+     * Initialize the vocabulary that maps each stemmed word of the model to its ID.
+     * Initialize the stemmer service used to stem the text, behind the stem dictionary and the cache.
+     * Initialize the compiled pipeline that processes the text before stemming it, with the stop words
+     *      that were read when the engine was loaded.
+     * Initialize the source index of the lines of the corpus, or null if it was not built for this corpus.
+     */
+    static final int GRAM = LanguageModel.getGram();
+    static final double NOT_IN_MODEL = -1;
+    private static final int STEM_CACHE_CAPACITY = 100_000;
+
+    private final NGramLookup languageModel;
+    private final Vocabulary vocabulary;
+    private final StemmerService stemmer;
+    private final Function<CharSequence, String> processTextPipeline;
+    private final SourceIndex sourceIndex;
+
+    private PlagiarismEngine(NGramLookup languageModel, Vocabulary vocabulary, StemmerService stemmer,
+                             Function<CharSequence, String> processTextPipeline, SourceIndex sourceIndex) {
+        this.languageModel = languageModel;
+        this.vocabulary = vocabulary;
+        this.stemmer = stemmer;
+        this.processTextPipeline = processTextPipeline;
+        this.sourceIndex = sourceIndex;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Loads the engine.
+     * Reads a list of common words (stop words) from a file, maps the language model file,
+     * the stem dictionary and the source index (if they exist), and starts the stemmer.
+     *
+     * @param args optional flags (may be null):
+     *             "--python-stemmer" to stem with a pool of long lived StemSentence.py workers,
+     *             "--stemmer-workers=N" to set the number of python workers (1 by default).
+     * @return the loaded engine
+     * @throws IOException if there is an error reading from a file, or starting the python workers
+     */
+    public static PlagiarismEngine load(String[] args) throws IOException {
+        boolean pythonStemmer = false;
+        int numberOfWorkers = 1;
+        for (String arg: (args == null) ? new String[0] : args) {
+            if (arg.equals("--python-stemmer")) pythonStemmer = true;
+            else if (arg.startsWith("--stemmer-workers=")) numberOfWorkers = Integer.parseInt(arg.substring("--stemmer-workers=".length()));
+            else throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+
+        Corpus.readStopWordsFromFile();
+        Function<CharSequence, String> processTextPipeline = new TextBuilder()
+                .normalizeText()
+                .removeStopWords(Corpus.getStopWordMatcher())
+                .cleanTheLine()
+                .compile();
+
+        File dictionaryFile = StemDictionary.getDictionaryFile();
+        StemDictionary dictionary = dictionaryFile.exists() ? StemDictionary.open(dictionaryFile) : StemDictionary.EMPTY;
+        StemmerService stemmer = new CachingStemmer(dictionary, STEM_CACHE_CAPACITY,
+                pythonStemmer ? new PythonStemmerPool(numberOfWorkers) : new ArlstemStemmer());
+        SourceIndex sourceIndex = loadSourceIndex();
+
+        try {
+            ArrayList<MappedLanguageModel> segments = LanguageModel.openModelAndDeltaSegments();
+            if (segments.size() > 1) {
+                SegmentedLanguageModel segmentedModel = new SegmentedLanguageModel(segments);
+                return new PlagiarismEngine(segmentedModel, segmentedModel.getVocabulary(), stemmer, processTextPipeline, sourceIndex);
+            }
+
+            MappedLanguageModel model = segments.get(0);
+            return new PlagiarismEngine(loadLanguageModel(model), model.getVocabulary(), stemmer, processTextPipeline, sourceIndex);
+        } catch (IOException | RuntimeException e) {
+            stemmer.close();    // do not leave the python workers running
+            if (sourceIndex != null) sourceIndex.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns an engine that looks the chunks up in another language model, which has the same
+     * vocabulary as the model of this engine, and shares everything else with this engine.
+     *
+     * @param languageModel the language model to look the chunks up in
+     * @return the engine of the language model
+     */
+    PlagiarismEngine withLanguageModel(NGramLookup languageModel) {
+        return new PlagiarismEngine(languageModel, vocabulary, stemmer, processTextPipeline, sourceIndex);
+    }
+
+    /**
+     * Starts the check of a text by stemming it, the sentences of the text are then scored by the session.
+     *
+     * @param text the text to be checked
+     * @return the session of the check, which holds the stems of the words of the text
+     * @throws IOException if an I/O error occurs
+     */
+    public CheckSession newSession(String text) throws IOException {
+        return new CheckSession(this, stemTheSentence(processText(text)));
+    }
+
+    /**
+     * Stops the stemmer and closes the source index. They are shared with the engines returned by
+     * withLanguageModel, so only the engine returned by load is closed, after the last check.
+     *
+     * @throws IOException if there is an error closing the source index
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            stemmer.close();
+        } finally {
+            if (sourceIndex != null) sourceIndex.close();
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * Looks the chunks of a model up in the index of the model if it exists and was built from the
+     * same model, or in the trie of the model otherwise, after the Bloom filters of the model rule
+     * out the chunks that are not in it.
+     *
+     * @param model the mapped language model
+     * @return the lookup of the chunks
+     * @throws IOException if there is an error mapping the index of the model.
+     */
+    private static NGramLookup loadLanguageModel(MappedLanguageModel model) throws IOException {
+        NGramLookup lookup = model;
+
+        File indexFile = LanguageModel.getIndexFile();
+        if (indexFile.exists()) {
+            ModelIndex index = new ModelIndex(indexFile);
+            if (index.matches(model)) lookup = index;
+        }
+        return new BloomFilteredLookup(model, lookup);
+    }
+
+    /**
+     * Maps the source index of the corpus if it exists and was built from the corpus as it is now.
+     * The word IDs of a model never change when delta segments are added or merged, so the index
+     * stays valid until the corpus itself changes, but the text of the delta segments is not in it.
+     * The snippets are read from the messy corpus when Corpus --stem recorded where each stemmed line came from.
+     * Any failure to map it, such as a corrupt file, leaves the detector without sources instead of stopping it.
+     *
+     * @return the source index, or null if there is none for this corpus.
+     */
+    private static SourceIndex loadSourceIndex() {
+        File indexFile = LanguageModel.getSourceIndexFile();
+        if (!indexFile.exists()) return null;
+
+        try {
+            return new SourceIndex(indexFile, LanguageModel.getCorpusFile(), Corpus.getStemmedOffsetsFile(), Corpus.getMessyCorpusFile());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("The source index is not used: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stems the given text and returns a map of the original words and their stemmed versions.
+     *
+     * @param text the text to stem
+     * @return a HashMap with original words as keys and stemmed words as values
+     * @throws IOException if an I/O error occurs
+     */
+    private HashMap<String, String> stemTheSentence(String text) throws IOException {
+        HashMap<String, String> map = new HashMap<>();
+        String stemmedSentence = stemmer.stemSentence(text);
+
+        String[] wordsBeforeStemming = text.split(" ");
+        String[] wordsAfterStemming = stemmedSentence.split(" ");
+
+        for (int i = 0; i < wordsBeforeStemming.length; i++) {
+            map.put(wordsBeforeStemming[i], wordsAfterStemming[i]);
+        }
+
+        return map;
+    }
+
+    /**
+     * Processes the given text by normalizing, removing stop words, and cleaning it from the
+     * words less than 3 characters.
+     *
+     * @param text the text to process
+     * @return the processed text
+     */
+    public String processText(String text) {
+        return processTextPipeline.apply(text);
+    }
+
+    //////////////////////////////
+
+    /**
+     * Walks the language model once from every word of a stemmed sentence, so the chunks of
+     * 1 to GRAM words that start at the same word are found one after the other, each one as a
+     * child of the previous chunk, and their probabilities are calculated from the counts on the way.
+     *
+     * @param words the word IDs of the sentence
+     * @return the probability of the chunk of n words that starts at word i at [i][n],
+     *         or NOT_IN_MODEL if the chunk does not exist in the model
+     */
+    double[][] getProbabilitiesOfChunks(int[] words) {
+        double[][] probabilities = new double[words.length][GRAM + 1];
+        int[] path = new int[GRAM];
+
+        for (int i = 0; i < words.length; i++) {
+            Arrays.fill(probabilities[i], NOT_IN_MODEL);
+            int numberOfWordsFound = languageModel.walk(words, i, words.length - i, path);
+            for (int n = 1; n <= numberOfWordsFound; n++) {
+                int parent = (n == 1) ? NGramLookup.ROOT : path[n - 2];
+                probabilities[i][n] = languageModel.getProbability(n, path[n - 1], parent);
+            }
+        }
+
+        return probabilities;
+    }
+
+    /**
+     * Finds the lines of the corpus that a stemmed sentence may be copied from.
+     *
+     * @param words           the word IDs of the sentence
+     * @param numberOfSources the most number of lines to return
+     * @return the lines that share the most fingerprints with the sentence, or an empty list
+     *         if there is no source index
+     * @throws IOException if there is an error reading a line of the corpus
+     */
+    ArrayList<SourceMatch> findSources(int[] words, int numberOfSources) throws IOException {
+        if (sourceIndex == null) return new ArrayList<>();
+        return sourceIndex.findSources(words, numberOfSources);
+    }
+
+    /**
+     * Finds the lines of the corpus that a stemmed text is a near duplicate of.
+     *
+     * @param words          the word IDs of the text
+     * @param minSimilarity  the lowest estimated similarity of a line to return, from 0 to 1
+     * @param numberOfLines  the most number of lines to return
+     * @return the most similar lines first, or an empty list if there is no source index
+     * @throws IOException if there is an error reading a line of the corpus
+     */
+    ArrayList<NearDuplicate> findNearDuplicates(int[] words, double minSimilarity, int numberOfLines) throws IOException {
+        if (sourceIndex == null) return new ArrayList<>();
+        return sourceIndex.findNearDuplicates(words, minSimilarity, numberOfLines);
+    }
+
+    /**
+     * Turns a stemmed text into the IDs of its words in the vocabulary of the model.
+     *
+     * @param text the stemmed text
+     * @return the IDs of the words, UNKNOWN_WORD for the words that are not in the model
+     */
+    int[] tokenize(String text) {
+        return vocabulary.tokenize(text);
+    }
+
+    //////////////////////////////
+
+    /**
+     * Returns the hit and miss counters of the stem dictionary and cache, used to size the cache.
+     *
+     * @return the counters as text
+     */
+    public String getStemmerStatistics() {
+        return stemmer.toString();
+    }
+
+    /**
+     * Returns the number of words in the given text.
+     *
+     * @param text the text to count the number of words in
+     * @return the number of words in the text
+     */
+    public static int numberOfWords(String text) {
+        if (text == null) return 0;
+        return text.trim().split(" ").length;
+    }
+}
@@ -0,0 +1,162 @@
+package LanguageProcesses.Utils;
+
+import LanguageProcesses.Corpus;
+
+public class ArabicNormalizer {
+    /**
+     * Initialize the number of consecutive redundant characters that are allowed before
+     *      collapsing them to one character (the same value Corpus.normalizeText used to pass).
+     * Initialize the code unit mapping table of the letter stage (underscores, kashida and
+     *      alternative letters), where every char is mapped to exactly one char.
+     * Initialize the expansion table for the chars that are mapped to zero or several chars,
+     *      like the ligatures U+FDFA and U+FDFD or the kashida U+0640.
+     * Initialize the blocks that contain every char touched by the letter stage, any char
+     *      outside them is left as it is.
+     */
+    public static final int MAX_CONSECUTIVE_CHARACTERS = 3;
+
+    private static final char[] LETTER_TABLE = new char[Character.MAX_VALUE + 1];
+    private static final String[] EXPANSION_TABLE = new String[Character.MAX_VALUE + 1];
+
+    private static final char[][] MAPPED_BLOCKS = {
+            {'_', '_'},
+            {'\u0600', '\u08FF'},   // Arabic, Arabic Supplement and Arabic Extended-A
+            {'\uFDF0', '\uFDFF'}    // Arabic ligatures
+    };
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            LETTER_TABLE[c] = (char) c;
+        }
+
+        for (char[] block: MAPPED_BLOCKS) {
+            for (char c = block[0]; c <= block[1]; c++) {
+                String mapped = applyLetterStageUsingRegex(String.valueOf(c));
+                if (mapped.length() == 1)
+                    LETTER_TABLE[c] = mapped.charAt(0);
+                else
+                    EXPANSION_TABLE[c] = mapped;
+            }
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * Applies all the normalization operations of Corpus.normalizeText to a given text in
+     * one pass over its chars, and gives exactly the same output as applying them one by one.
+     * Every char goes through the letter table (or the expansion table), then through the
+     * consecutive redundant characters counter, and finally through the matching letters and
+     * non-Arabic filter.
+     *
+     * @param text The text to be normalized.
+     * @return The normalized text.
+     */
+    public static String normalize(CharSequence text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        normalize(text, 0, text.length(), sb);
+        return sb.toString();
+    }
+
+    /**
+     * Normalizes the chars of a given text between two indexes and appends the result to
+     * the given StringBuilder, without building any intermediate String.
+     *
+     * @param text  The text to be normalized.
+     * @param start The index of the first char to be normalized.
+     * @param end   The index after the last char to be normalized.
+     * @param out   The StringBuilder that the normalized text will be appended to.
+     */
+    public static void normalize(CharSequence text, int start, int end, StringBuilder out) {
+        char prevChar = 0;
+        int count = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            String expansion = EXPANSION_TABLE[c];
+
+            if (expansion == null) {
+                char mapped = LETTER_TABLE[c];
+                if (count > 0 && mapped == prevChar) {
+                    count++;
+                } else {
+                    appendRun(prevChar, count, out);
+                    prevChar = mapped;
+                    count = 1;
+                }
+
+            } else {
+                for (int j = 0; j < expansion.length(); j++) {
+                    char mapped = expansion.charAt(j);
+                    if (count > 0 && mapped == prevChar) {
+                        count++;
+                    } else {
+                        appendRun(prevChar, count, out);
+                        prevChar = mapped;
+                        count = 1;
+                    }
+                }
+            }
+        }
+
+        appendRun(prevChar, count, out);
+    }
+
+    //////////////////////////////
+
+    /**
+     * Appends a run of the same char after collapsing it to one char if it is longer
+     * than MAX_CONSECUTIVE_CHARACTERS, then applies the matching letters and removes
+     * the non-Arabic chars.
+     *
+     * @param c     The repeated char.
+     * @param count The number of times the char is repeated.
+     * @param out   The StringBuilder that the run will be appended to.
+     */
+    private static void appendRun(char c, int count, StringBuilder out) {
+        if (count == 0) return;
+        if (count > MAX_CONSECUTIVE_CHARACTERS) count = 1;
+
+        char matched = matchLetter(c);
+        if (matched == 0) return;
+
+        for (int i = 0; i < count; i++) {
+            out.append(matched);
+        }
+    }
+
+    /**
+     * Replaces the letters "ى" and "ة" with "ا" and "ه", keeps the basic Arabic letters
+     * and the whitespaces that are matched by the regex "\s", and drops any other char.
+     *
+     * @param c The char to be matched.
+     * @return The matched char, or 0 if the char should be removed.
+     */
+    private static char matchLetter(char c) {
+        if (c == 'ى') return 'ا';
+        if (c == 'ة') return 'ه';
+        if (c >= 'ء' && c <= 'ي') return c;
+
+        switch (c) {
+            case ' ': case '\t': case '\n': case '\u000B': case '\f': case '\r':
+                return c;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Applies the steps of the normalization that work on each char on its own, using
+     * the regex based methods of the Corpus class. It is only used to fill the tables,
+     * so the tables always follow the replacement lists written in the Corpus class.
+     *
+     * @param text The text to be processed.
+     * @return The processed text.
+     */
+    private static String applyLetterStageUsingRegex(String text) {
+        text = Corpus.replaceUnderscoreWithSpace(text);
+        text = Corpus.replaceSpecialCharactersWithWords(text);
+        text = Corpus.removeKashida(text);
+        return Corpus.replaceAlternativeLetters(text);
+    }
+}
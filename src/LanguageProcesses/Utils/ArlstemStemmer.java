@@ -0,0 +1,410 @@
+package LanguageProcesses.Utils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Java implementation of the ARLSTem Arabic light stemmer, following the rules of
+ * nltk.stem.arlstem.ARLSTem step by step, so it gives the same stems without starting
+ * a Python process.
+ * https://www.nltk.org/howto/stem.html
+ */
+public class ArlstemStemmer implements StemmerService {
+    /**
+     * Initialize the prefixes of the nouns:
+     *      Alif Laam, Laam Laam, Fa Laam, Fa Ba
+     *      Ba Alif Laam, Kaaf Alif Laam, Waaw Alif Laam
+     *      Fa Laam Laam, Waaw Laam Laam
+     *      Fa Ba Alif Laam, Waaw Ba Alif Laam, Fa Kaaf Alif Laam
+     * Initialize the suffixes that are common to nouns and verbs:
+     *      Kaf Yaa, Kaf Miim
+     *      Ha Alif, Ha Miim
+     *      Kaf Miim Alif, Kaf Noon Shadda
+     *      Ha Miim Alif, Ha Noon Shadda
+     * Initialize the plural suffixes:
+     *      Alif Noon, Ya Noon, Waaw Noon
+     *      Taa Alif Noon, Taa Ya Noon
+     * Initialize the verb prefixes and suffixes:
+     *      Alif Noon, Waaw Noon
+     *      Siin Taa, Siin Yaa
+     *      Siin Alif, Siin Noon
+     *      Lam Noon, Lam Taa, Lam Yaa, Lam Hamza
+     *      Taa Miim Alif, Taa Noon Shadda
+     *      Noon Alif, Taa Miim, Taa Alif, Waaw Alif
+     *      Taa, Alif, Noon
+     */
+    private static final String[] PR2 = {"ال", "لل", "فل", "فب"};
+    private static final String[] PR3 = {"بال", "كال", "وال"};
+    private static final String[] PR32 = {"فلل", "ولل"};
+    private static final String[] PR4 = {"فبال", "وبال", "فكال"};
+
+    private static final String[] SU2 = {"كي", "كم"};
+    private static final String[] SU22 = {"ها", "هم"};
+    private static final String[] SU3 = {"كما", "كنّ"};
+    private static final String[] SU32 = {"هما", "هنّ"};
+
+    private static final String[] PL_SI2 = {"ان", "ين", "ون"};
+    private static final String[] PL_SI3 = {"تان", "تين"};
+
+    private static final String[] VERB_SU2 = {"ان", "ون"};
+    private static final String[] VERB_PR2 = {"ست", "سي"};
+    private static final String[] VERB_PR22 = {"سا", "سن"};
+    private static final String[] VERB_PR33 = {"لن", "لت", "لي", "لأ"};
+    private static final String[] VERB_SUF3 = {"تما", "تنّ"};
+    private static final String[] VERB_SUF2 = {"نا", "تم", "تا", "وا"};
+    private static final String[] VERB_SUF1 = {"ت", "ا", "ن"};
+
+    //////////////////////////////
+
+    /**
+     * Checks the stemmer against a golden file, where each line consists of a word and its stem
+     * separated by a tab, and the header lines that have no tab are skipped.
+     * The committed Data/GoldenStems.tsv holds the words of RandomTexts.txt and StopWords.txt after
+     * normalizeText, and its header tells where the stems come from; the ExportGoldenStems.py script
+     * exports the NLTK stems of the same words into it. The check itself does not need NLTK.
+     * Prints every word that gets a different stem and the number of mismatches.
+     *
+     * @param args the path of the golden file, "Data/GoldenStems.tsv" if not given.
+     * @throws IOException if there is an error reading from the golden file.
+     */
+    public static void main(String[] args) throws IOException {
+        String goldenFilePath = (args.length > 0) ? args[0] : "Data/GoldenStems.tsv";
+        ArlstemStemmer stemmer = new ArlstemStemmer();
+
+        int numberOfWords = 0;
+        int numberOfMismatches = 0;
+
+        BufferedReader reader = new BufferedReader(new FileReader(goldenFilePath, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int tabIndex = line.indexOf('\t');
+            if (tabIndex == -1) continue;
+
+            String word = line.substring(0, tabIndex);
+            String expectedStem = line.substring(tabIndex + 1);
+            String stem = stemmer.stem(word);
+            numberOfWords++;
+
+            if (!stem.equals(expectedStem)) {
+                numberOfMismatches++;
+                System.out.println(word + "\texpected: " + expectedStem + "\tgot: " + stem);
+            }
+        }
+        reader.close();
+
+        System.out.println(numberOfMismatches + " mismatches out of " + numberOfWords + " words");
+        if (numberOfMismatches > 0) System.exit(1);
+    }
+
+    //////////////////////////////
+
+    /**
+     * Stems every word of a sentence, where the words are separated by single spaces,
+     * the same way the StemSentence.py script does.
+     *
+     * @param sentence the sentence to be stemmed.
+     * @return the stems joined by single spaces, one stem for each word.
+     */
+    @Override
+    public String stemSentence(String sentence) {
+        String[] words = sentence.split(" ", -1);
+
+        StringBuilder sb = new StringBuilder(sentence.length());
+        for (int i = 0; i < words.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(stem(words[i]));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the stem of a word based on ARLSTem.
+     *
+     * @param token the word to be stemmed.
+     * @return the stem of the word.
+     */
+    public String stem(String token) {
+        if (token == null)
+            throw new IllegalArgumentException("The word could not be stemmed, because it is empty !");
+
+        // remove Arabic diacritics and replace some letters with others
+        token = norm(token);
+
+        // strip common prefixes of the nouns
+        String pre = pref(token);
+        if (pre != null) token = pre;
+
+        // strip the suffixes which are common to nouns and verbs
+        token = suff(token);
+
+        // transform a plural noun to a singular noun
+        String ps = plur2sing(token);
+        if (ps != null) return ps;
+
+        // transform from the feminine form to the masculine form
+        String fm = fem2masc(token);
+        if (fm != null) return fm;
+
+        // strip the verb prefixes and suffixes if the prefixes are not stripped
+        if (pre == null) return verb(token);
+        return token;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Normalizes the word by removing diacritics, replacing hamzated Alif with Alif,
+     * replacing Alif Maqsura with Yaa and removing Waaw at the beginning.
+     */
+    private String norm(String token) {
+        StringBuilder sb = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c >= 'ً' && c <= 'ٟ') continue;
+            if (c == 'آ' || c == 'أ' || c == 'إ') c = 'ا';
+            else if (c == 'ى') c = 'ي';
+            sb.append(c);
+        }
+        token = sb.toString();
+
+        // strip the Waaw from the word beginning if the remaining is 3 letters at least
+        if (token.startsWith("و") && token.length() > 3)
+            token = token.substring(1);
+
+        return token;
+    }
+
+    /**
+     * Removes the prefixes from the beginning of the word.
+     *
+     * @return the word without its prefix, or null if it has no prefix.
+     */
+    private String pref(String token) {
+        int length = token.length();
+
+        if (length > 5) {
+            for (String p3: PR3) {
+                if (token.startsWith(p3)) return token.substring(3);
+            }
+        }
+        if (length > 6) {
+            for (String p4: PR4) {
+                if (token.startsWith(p4)) return token.substring(4);
+            }
+        }
+        if (length > 5) {
+            for (String p3: PR32) {
+                if (token.startsWith(p3)) return token.substring(3);
+            }
+        }
+        if (length > 4) {
+            for (String p2: PR2) {
+                if (token.startsWith(p2)) return token.substring(2);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes the suffixes from the end of the word.
+     */
+    private String suff(String token) {
+        int length = token.length();
+
+        if (token.endsWith("ك") && length > 3) return token.substring(0, length - 1);
+        if (length > 4) {
+            for (String s2: SU2) {
+                if (token.endsWith(s2)) return token.substring(0, length - 2);
+            }
+        }
+        if (length > 5) {
+            for (String s3: SU3) {
+                if (token.endsWith(s3)) return token.substring(0, length - 3);
+            }
+        }
+        if (token.endsWith("ه") && length > 3) return token.substring(0, length - 1);
+        if (length > 4) {
+            for (String s2: SU22) {
+                if (token.endsWith(s2)) return token.substring(0, length - 2);
+            }
+        }
+        if (length > 5) {
+            for (String s3: SU32) {
+                if (token.endsWith(s3)) return token.substring(0, length - 3);
+            }
+        }
+        if (token.endsWith("نا") && length > 4) return token.substring(0, length - 2);
+
+        return token;
+    }
+
+    /**
+     * Transforms the word from the feminine form to the masculine form.
+     *
+     * @return the masculine form, or null if the word is not feminine.
+     */
+    private String fem2masc(String token) {
+        if (token.endsWith("ة") && token.length() > 3)
+            return token.substring(0, token.length() - 1);
+
+        return null;
+    }
+
+    /**
+     * Transforms the word from the plural form to the singular form.
+     *
+     * @return the singular form, or null if the word is not plural.
+     */
+    private String plur2sing(String token) {
+        int length = token.length();
+
+        if (length > 4) {
+            for (String ps2: PL_SI2) {
+                if (token.endsWith(ps2)) return token.substring(0, length - 2);
+            }
+        }
+        if (length > 5) {
+            for (String ps3: PL_SI3) {
+                if (token.endsWith(ps3)) return token.substring(0, length - 3);
+            }
+        }
+        if (length > 3 && token.endsWith("ات"))
+            return token.substring(0, length - 2);
+        if (length > 3 && token.startsWith("ا") && token.charAt(2) == 'ا')
+            return token.substring(0, 2) + token.substring(3);
+        if (length > 4 && token.startsWith("ا") && token.charAt(length - 2) == 'ا')
+            return token.substring(1, length - 2) + token.charAt(length - 1);
+
+        return null;
+    }
+
+    /**
+     * Stems the verb prefixes and suffixes or both.
+     */
+    private String verb(String token) {
+        String vb = verbT1(token);
+        if (vb != null) return vb;
+        vb = verbT2(token);
+        if (vb != null) return vb;
+        vb = verbT3(token);
+        if (vb != null) return vb;
+        vb = verbT4(token);
+        if (vb != null) return vb;
+        return verbT5(token);
+    }
+
+    /**
+     * Stems the present prefixes and suffixes.
+     */
+    private String verbT1(String token) {
+        int length = token.length();
+
+        if (length > 5 && token.startsWith("ت")) {    // Taa
+            for (String s2: PL_SI2) {
+                if (token.endsWith(s2)) return token.substring(1, length - 2);
+            }
+        }
+        if (length > 5 && token.startsWith("ي")) {    // Yaa
+            for (String s2: VERB_SU2) {
+                if (token.endsWith(s2)) return token.substring(1, length - 2);
+            }
+        }
+        if (length > 4 && token.startsWith("ا")) {    // Alif
+            if (length > 5 && token.endsWith("وا")) return token.substring(1, length - 2);    // Waaw Alif
+            if (token.endsWith("ي")) return token.substring(1, length - 1);    // Yaa
+            if (token.endsWith("ا")) return token.substring(1, length - 1);    // Alif
+            if (token.endsWith("ن")) return token.substring(1, length - 1);    // Noon
+        }
+        if (length > 4 && token.startsWith("ي") && token.endsWith("ن"))    // ^Yaa, Noon$
+            return token.substring(1, length - 1);
+        if (length > 4 && token.startsWith("ت") && token.endsWith("ن"))    // ^Taa, Noon$
+            return token.substring(1, length - 1);
+
+        return null;
+    }
+
+    /**
+     * Stems the future prefixes and suffixes.
+     */
+    private String verbT2(String token) {
+        int length = token.length();
+
+        if (length > 6) {
+            for (String s2: PL_SI2) {
+                if (token.startsWith(VERB_PR2[0]) && token.endsWith(s2))    // ^Siin Taa
+                    return token.substring(2, length - 2);
+            }
+            if (token.startsWith(VERB_PR2[1]) && token.endsWith(PL_SI2[0]))    // ^Siin Yaa, Alif Noon$
+                return token.substring(2, length - 2);
+            if (token.startsWith(VERB_PR2[1]) && token.endsWith(PL_SI2[2]))    // ^Siin Yaa, Waaw Noon$
+                return token.substring(2, length - 2);
+        }
+        if (length > 5 && token.startsWith(VERB_PR2[0]) && token.endsWith("ن"))    // ^Siin Taa, Noon$
+            return token.substring(2, length - 1);
+        if (length > 5 && token.startsWith(VERB_PR2[1]) && token.endsWith("ن"))    // ^Siin Yaa, Noon$
+            return token.substring(2, length - 1);
+
+        return null;
+    }
+
+    /**
+     * Stems the present suffixes.
+     */
+    private String verbT3(String token) {
+        int length = token.length();
+
+        if (length > 5) {
+            for (String su3: VERB_SUF3) {
+                if (token.endsWith(su3)) return token.substring(0, length - 3);
+            }
+        }
+        if (length > 4) {
+            for (String su2: VERB_SUF2) {
+                if (token.endsWith(su2)) return token.substring(0, length - 2);
+            }
+        }
+        if (length > 3) {
+            for (String su1: VERB_SUF1) {
+                if (token.endsWith(su1)) return token.substring(0, length - 1);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Stems the present prefixes.
+     */
+    private String verbT4(String token) {
+        if (token.length() > 3) {
+            for (String pr1: VERB_SUF1) {
+                if (token.startsWith(pr1)) return token.substring(1);
+            }
+            if (token.startsWith("ي")) return token.substring(1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Stems the future prefixes.
+     * Like in NLTK, this step always returns a word, so the order prefixes of VERB_PR33
+     * (stemmed by verb_t6 in NLTK) are never reached.
+     */
+    private String verbT5(String token) {
+        if (token.length() > 4) {
+            for (String pr2: VERB_PR22) {
+                if (token.startsWith(pr2)) return token.substring(2);
+            }
+            for (String pr2: VERB_PR2) {
+                if (token.startsWith(pr2)) return token.substring(2);
+            }
+        }
+
+        return token;
+    }
+}
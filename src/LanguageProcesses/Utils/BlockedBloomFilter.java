@@ -0,0 +1,140 @@
+package LanguageProcesses.Utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.LongBuffer;
+
+/**
+ * A blocked Bloom filter of n-gram hashes, which tells that an n-gram is definitely not in a set
+ * reading a single cache line. Every hash picks one block of 512 bits (64 bytes, one cache line),
+ * and sets or checks NUMBER_OF_HASHES bits inside that block only, so a check costs one memory
+ * access where a normal Bloom filter costs one per bit. With BITS_PER_KEY bits per n-gram, about
+ * 1 in 100 of the n-grams that are not in the set pass the filter.
+ *
+ * The hash of an n-gram is built word by word from the hash of its prefix, so the hashes of all the
+ * n-grams that start at the same word are found one after the other.
+ * The bits are kept in windows of BLOCKS_PER_WINDOW blocks, the windows of a MappedSection, so the
+ * filter of a level can be bigger than the 2GB that one buffer can map.
+ */
+public class BlockedBloomFilter {
+    /**
+     * Initialize the number of bits per key, the number of bits set per key, and the number of longs in a block.
+     * Initialize the number of blocks in a window of the bits.
+     * Initialize the hash of the empty n-gram, which every n-gram hash starts from.
+     * Initialize the windows of the bits of the filter and its number of blocks.
+     */
+    private static final int BITS_PER_KEY = 10;
+    private static final int NUMBER_OF_HASHES = 7;
+    private static final int LONGS_PER_BLOCK = 8;
+    public static final int BLOCK_SIZE = LONGS_PER_BLOCK * 8;
+    private static final int BLOCKS_PER_WINDOW = MappedSection.MAX_WINDOW_SIZE / BLOCK_SIZE;
+
+    public static final long EMPTY_NGRAM_HASH = 0x2545F4914F6CDD1DL;
+
+    private final LongBuffer[] windows;
+    private final int numberOfBlocks;
+
+    /**
+     * Creates an empty filter for a number of keys.
+     *
+     * @param expectedKeys the number of keys that will be added.
+     */
+    public BlockedBloomFilter(int expectedKeys) {
+        int numberOfBlocks = getNumberOfBlocks(expectedKeys);
+        windows = new LongBuffer[(numberOfBlocks + BLOCKS_PER_WINDOW - 1) / BLOCKS_PER_WINDOW];
+        for (int i = 0; i < windows.length; i++) {
+            int blocks = Math.min(BLOCKS_PER_WINDOW, numberOfBlocks - i * BLOCKS_PER_WINDOW);
+            windows[i] = LongBuffer.wrap(new long[blocks * LONGS_PER_BLOCK]);
+        }
+        this.numberOfBlocks = numberOfBlocks;
+    }
+
+    /**
+     * Creates a filter that reads its bits from a mapped part of a file.
+     *
+     * @param bits the bits of the filter, written by writeTo.
+     */
+    BlockedBloomFilter(MappedSection bits) {
+        this.windows = bits.asLongBuffers();
+        this.numberOfBlocks = (int) (bits.getSize() / BLOCK_SIZE);
+    }
+
+    public static int getNumberOfBlocks(int expectedKeys) {
+        return (int) Math.max(1, ((long) expectedKeys * BITS_PER_KEY + BLOCK_SIZE * 8 - 1) / (BLOCK_SIZE * 8));
+    }
+
+    //////////////////////////////
+
+    /**
+     * Returns the hash of an n-gram from the hash of its n-1 gram prefix and its last word.
+     *
+     * @param prefixHash the hash of the prefix, or EMPTY_NGRAM_HASH for a unigram.
+     * @param word       the ID of the last word.
+     * @return the hash of the n-gram.
+     */
+    public static long extendHash(long prefixHash, int word) {
+        return mix((prefixHash ^ word) * 0x9E3779B97F4A7C15L);
+    }
+
+    public void add(long hash) {
+        int block = getBlock(hash);
+        LongBuffer bits = windows[block / BLOCKS_PER_WINDOW];
+        int offset = (block % BLOCKS_PER_WINDOW) * LONGS_PER_BLOCK;
+        long bitsHash = mix(hash);
+        int first = (int) bitsHash;
+        int step = (int) (bitsHash >>> 32) | 1;
+        for (int i = 0; i < NUMBER_OF_HASHES; i++) {
+            int bit = (first + i * step) & (BLOCK_SIZE * 8 - 1);
+            bits.put(offset + (bit >>> 6), bits.get(offset + (bit >>> 6)) | (1L << bit));
+        }
+    }
+
+    /**
+     * Checks a hash against the filter.
+     *
+     * @param hash the hash of an n-gram.
+     * @return false if the n-gram is definitely not in the set, true if it might be.
+     */
+    public boolean mightContain(long hash) {
+        int block = getBlock(hash);
+        LongBuffer bits = windows[block / BLOCKS_PER_WINDOW];
+        int offset = (block % BLOCKS_PER_WINDOW) * LONGS_PER_BLOCK;
+        long bitsHash = mix(hash);
+        int first = (int) bitsHash;
+        int step = (int) (bitsHash >>> 32) | 1;
+        for (int i = 0; i < NUMBER_OF_HASHES; i++) {
+            int bit = (first + i * step) & (BLOCK_SIZE * 8 - 1);
+            if ((bits.get(offset + (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the bits of the filter, which take getNumberOfBlocks(expectedKeys) * BLOCK_SIZE bytes.
+     *
+     * @param out the output stream.
+     * @throws IOException if there is an error writing to the stream.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        for (LongBuffer bits: windows) {
+            for (int i = 0; i < bits.limit(); i++) {
+                out.writeLong(bits.get(i));
+            }
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * Picks the block of a hash from its high bits without a division.
+     */
+    private int getBlock(long hash) {
+        return (int) (((hash >>> 32) * numberOfBlocks) >>> 32);
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+        x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return x ^ (x >>> 33);
+    }
+}
@@ -0,0 +1,47 @@
+package LanguageProcesses.Utils;
+
+/**
+ * A lookup that checks the Bloom filters of a model before walking another lookup of the same model,
+ * such as its index or its trie. Most chunks of a checked text are not in the corpus, so most walks
+ * stop at the filters after reading one cache line per word, without reaching the lookup at all.
+ * A filter never rules out an n-gram that is in the model, so the walks find the same n-grams.
+ * The index is usually keyed by the same hashes as the filters, so it is walked with the hashes of the filters.
+ */
+public class BloomFilteredLookup implements NGramLookup {
+    /**
+     * Initialize the model that holds the filters, and the lookup that is walked after them.
+     * Initialize the index of the model if the lookup is the index and it is keyed by the hashes of the filters, or null.
+     */
+    private final MappedLanguageModel model;
+    private final NGramLookup lookup;
+    private final ModelIndex index;
+
+    public BloomFilteredLookup(MappedLanguageModel model, NGramLookup lookup) {
+        this.model = model;
+        this.lookup = lookup;
+        this.index = (lookup instanceof ModelIndex && ((ModelIndex) lookup).isKeyedByFilterHashes()) ? (ModelIndex) lookup : null;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Walks the lookup along the words that the filters did not rule out.
+     */
+    @Override
+    public int walk(int[] words, int from, int maxWords, int[] path) {
+        if (index != null) {
+            long[] hashes = new long[model.getGram()];
+            int possibleLength = model.getPossibleLength(words, from, maxWords, hashes);
+            return (possibleLength == 0) ? 0 : index.walk(hashes, possibleLength, path);
+        }
+
+        int possibleLength = model.getPossibleLength(words, from, maxWords);
+        if (possibleLength == 0) return 0;
+        return lookup.walk(words, from, possibleLength, path);
+    }
+
+    @Override
+    public double getProbability(int n, int node, int parent) {
+        return lookup.getProbability(n, node, parent);
+    }
+}
@@ -0,0 +1,103 @@
+package LanguageProcesses.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stemmer service that stems every word only once.
+ * Each word is looked up in the precomputed stem dictionary first, then in a bounded LRU cache of
+ * the words that are not in the dictionary, and only the words that are found in neither are sent
+ * to the underlying stemmer, all in one request, and then added to the cache.
+ * The hits and misses are counted to size the cache.
+ */
+public class CachingStemmer implements StemmerService {
+    /**
+     * Initialize the dictionary of the corpus words, the cache of the other words, and the
+     *      stemmer used for the words that are in neither.
+     * Initialize the counters of the words found in the dictionary, the words found in the cache,
+     *      and the words sent to the stemmer.
+     */
+    private final StemDictionary dictionary;
+    private final ConcurrentLruCache<String, String> cache;
+    private final StemmerService stemmer;
+
+    private final LongAdder dictionaryHits = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachingStemmer(StemDictionary dictionary, int cacheCapacity, StemmerService stemmer) {
+        this.dictionary = dictionary;
+        this.cache = new ConcurrentLruCache<>(cacheCapacity);
+        this.stemmer = stemmer;
+    }
+
+    //////////////////////////////
+
+    @Override
+    public String stemSentence(String sentence) throws IOException {
+        String[] words = sentence.split(" ", -1);
+        String[] stems = new String[words.length];
+
+        ArrayList<Integer> missingIndexes = new ArrayList<>();
+        for (int i = 0; i < words.length; i++) {
+            stems[i] = dictionary.getStem(words[i]);
+            if (stems[i] != null) {
+                dictionaryHits.increment();
+                continue;
+            }
+
+            stems[i] = cache.get(words[i]);
+            if (stems[i] != null) {
+                cacheHits.increment();
+                continue;
+            }
+
+            misses.increment();
+            missingIndexes.add(i);
+        }
+
+        if (!missingIndexes.isEmpty()) stemMissingWords(words, stems, missingIndexes);
+        return String.join(" ", stems);
+    }
+
+    /**
+     * Stems the words that are not in the dictionary nor the cache in one request to the stemmer,
+     * and adds them to the cache.
+     */
+    private void stemMissingWords(String[] words, String[] stems, List<Integer> missingIndexes) throws IOException {
+        List<String> missingWords = new ArrayList<>(missingIndexes.size());
+        for (int i: missingIndexes) {
+            missingWords.add(words[i]);
+        }
+
+        List<String> missingStems = stemmer.stemSentences(missingWords);
+        for (int j = 0; j < missingIndexes.size(); j++) {
+            int i = missingIndexes.get(j);
+            stems[i] = missingStems.get(j);
+            cache.put(words[i], stems[i]);
+        }
+    }
+
+    /**
+     * Closes the underlying stemmer.
+     */
+    @Override
+    public void close() throws IOException {
+        stemmer.close();
+    }
+
+    //////////////////////////////
+
+    public long getDictionaryHits() {return dictionaryHits.sum();}
+    public long getCacheHits() {return cacheHits.sum();}
+    public long getMisses() {return misses.sum();}
+
+    @Override
+    public String toString() {
+        return "dictionary hits: " + getDictionaryHits() + " (" + dictionary.size() + " words)"
+                + ", cache hits: " + getCacheHits() + " (" + cache.size() + " words)"
+                + ", misses: " + getMisses();
+    }
+}
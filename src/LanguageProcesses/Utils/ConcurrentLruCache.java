@@ -0,0 +1,91 @@
+package LanguageProcesses.Utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache that evicts the least recently used entries, safe to share between threads.
+ * The entries are split into segments by the hash of their keys, where each segment is an access
+ * ordered LinkedHashMap with its own lock, so threads that use different keys rarely wait for each other.
+ * The least recently used entry is evicted per segment, which is close to a global LRU order.
+ */
+public class ConcurrentLruCache<K, V> {
+    /**
+     * Initialize the number of segments, a power of two.
+     * Initialize the segments of the cache.
+     */
+    private static final int NUMBER_OF_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ConcurrentLruCache(int capacity) {
+        if (capacity < NUMBER_OF_SEGMENTS) throw new IllegalArgumentException("The capacity must be at least " + NUMBER_OF_SEGMENTS);
+
+        segments = new Segment[NUMBER_OF_SEGMENTS];
+        for (int i = 0; i < NUMBER_OF_SEGMENTS; i++) {
+            segments[i] = new Segment<>(capacity / NUMBER_OF_SEGMENTS);
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * Returns the value of a key and marks it as the most recently used.
+     *
+     * @param key the key.
+     * @return the value, or null if the key is not in the cache.
+     */
+    public V get(K key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Adds a key and its value, evicting the least recently used entry of its segment if it is full.
+     *
+     * @param key   the key.
+     * @param value the value.
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment: segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> getSegment(K key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return segments[(hash >>> 16) & (NUMBER_OF_SEGMENTS - 1)];
+    }
+
+    //////////////////////////////
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+}
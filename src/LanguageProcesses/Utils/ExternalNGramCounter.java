@@ -0,0 +1,257 @@
+package LanguageProcesses.Utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/**
+ * Counts n-grams of word IDs in a fixed amount of memory, however many distinct n-grams there are.
+ * The n-grams are counted in a bounded NGramCountTable, and when the table is full it is saved to
+ * a run file sorted by the word IDs of the n-grams, and a new table is started. At the end all the
+ * runs are merged, summing the counts of the same n-gram, and the n-grams are passed in the same
+ * sorted order to a consumer, where every n-gram comes right after its prefix and its extensions.
+ * When there are more runs than MAX_RUNS_PER_MERGE, they are first merged in groups into bigger runs.
+ *
+ * Every record of a run file consists of the n of the n-gram, the IDs of its words, and its count.
+ */
+public class ExternalNGramCounter implements Closeable {
+    /**
+     * Initialize the maximum number of run files that are read at the same time by one merge.
+     * Initialize the size of the buffer of each run file.
+     * Initialize the directory of the run files, the run files that are not merged yet, and the
+     *      number of the next run file.
+     * Initialize the maximum number of entries of the table, and the table that counts the n-grams.
+     */
+    private static final int MAX_RUNS_PER_MERGE = 64;
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final ArrayList<File> runFiles = new ArrayList<>();
+    private int nextRunNumber = 0;
+
+    private final int maxEntriesInMemory;
+    private NGramCountTable table;
+
+    /**
+     * Creates a counter that saves its run files to a new temporary directory.
+     *
+     * @param parentDirectory    the directory where the temporary directory is created.
+     * @param maxEntriesInMemory the number of distinct n-grams counted in memory before they are saved to a run.
+     * @throws IOException if the temporary directory can not be created.
+     */
+    public ExternalNGramCounter(File parentDirectory, int maxEntriesInMemory) throws IOException {
+        this.directory = Files.createTempDirectory(parentDirectory.toPath(), "ngram-runs").toFile();
+        this.maxEntriesInMemory = maxEntriesInMemory;
+        this.table = new NGramCountTable(maxEntriesInMemory);
+    }
+
+    //////////////////////////////
+
+    /**
+     * Returns the table that the n-grams are counted in, which is replaced after every spill.
+     *
+     * @return the current table.
+     */
+    public NGramCountTable getTable() {return table;}
+
+    /**
+     * Saves the table to a new run file and starts a new table, if the table is full.
+     *
+     * @throws IOException if there is an error writing the run file.
+     */
+    public void spillIfFull() throws IOException {
+        if (table.size() >= maxEntriesInMemory) spill();
+    }
+
+    /**
+     * Merges all the runs and passes each distinct n-gram with its total count to the consumer,
+     * sorted by the word IDs of the n-grams, where every n-gram comes right after its prefix and
+     * the n-grams that extend it.
+     *
+     * @param consumer the consumer of the n-grams.
+     * @throws IOException if there is an error reading or writing a run file, or the consumer fails.
+     */
+    public void merge(NGramConsumer consumer) throws IOException {
+        if (table.size() > 0) spill();
+        table = null;
+
+        while (runFiles.size() > MAX_RUNS_PER_MERGE) {
+            ArrayList<File> group = new ArrayList<>(runFiles.subList(0, MAX_RUNS_PER_MERGE));
+            runFiles.subList(0, MAX_RUNS_PER_MERGE).clear();
+
+            File runFile = getNextRunFile();
+            try (DataOutputStream out = openRunForWriting(runFile)) {
+                mergeRuns(group, (ids, gram, count) -> writeRecord(out, ids, gram, count));
+            }
+            deleteRuns(group);
+            runFiles.add(runFile);
+        }
+
+        mergeRuns(runFiles, consumer);
+    }
+
+    /**
+     * Deletes the run files and their directory.
+     */
+    @Override
+    public void close() throws IOException {
+        deleteRuns(runFiles);
+        runFiles.clear();
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    //////////////////////////////
+
+    private void spill() throws IOException {
+        File runFile = getNextRunFile();
+        int[] ids = new int[64];
+
+        try (DataOutputStream out = openRunForWriting(runFile)) {
+            for (int entry: table.getSortedEntries()) {
+                if (table.getGram(entry) > ids.length) ids = new int[table.getGram(entry)];
+                int gram = table.getWordIds(entry, ids);
+                writeRecord(out, ids, gram, table.getCount(entry));
+            }
+        }
+
+        runFiles.add(runFile);
+        table = new NGramCountTable(maxEntriesInMemory);
+    }
+
+    /**
+     * Merges sorted runs using a priority queue of their current records, and passes every
+     * distinct n-gram once with the sum of its counts in all the runs.
+     */
+    private static void mergeRuns(ArrayList<File> runs, NGramConsumer consumer) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(runs.size(), 1), ExternalNGramCounter::compare);
+        try {
+            for (File run: runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.next()) queue.add(reader);
+                else reader.close();
+            }
+
+            int[] ids = new int[64];
+            while (!queue.isEmpty()) {
+                RunReader first = queue.poll();
+                if (first.gram > ids.length) ids = new int[first.gram];
+                int gram = first.gram;
+                System.arraycopy(first.ids, 0, ids, 0, gram);
+                long count = first.count;
+                advance(queue, first);
+
+                while (!queue.isEmpty() && sameNGram(queue.peek(), ids, gram)) {
+                    RunReader reader = queue.poll();
+                    count += reader.count;
+                    advance(queue, reader);
+                }
+
+                consumer.accept(ids, gram, count);
+            }
+        } finally {
+            for (RunReader reader: queue) reader.close();
+        }
+    }
+
+    private static void advance(PriorityQueue<RunReader> queue, RunReader reader) throws IOException {
+        if (reader.next()) queue.add(reader);
+        else reader.close();
+    }
+
+    /**
+     * Compares the n-grams of two runs by their word IDs, where an n-gram comes before the n-grams that extend it.
+     * The IDs are compared as unsigned ints, the order NGramCountTable sorts the runs in.
+     */
+    private static int compare(RunReader a, RunReader b) {
+        int minGram = Math.min(a.gram, b.gram);
+        for (int i = 0; i < minGram; i++) {
+            if (a.ids[i] != b.ids[i]) return Integer.compareUnsigned(a.ids[i], b.ids[i]);
+        }
+        return Integer.compare(a.gram, b.gram);
+    }
+
+    private static boolean sameNGram(RunReader reader, int[] ids, int gram) {
+        if (reader.gram != gram) return false;
+        for (int i = 0; i < gram; i++) {
+            if (reader.ids[i] != ids[i]) return false;
+        }
+        return true;
+    }
+
+    private static void writeRecord(DataOutputStream out, int[] ids, int gram, long count) throws IOException {
+        out.writeByte(gram);
+        for (int i = 0; i < gram; i++) {
+            out.writeInt(ids[i]);
+        }
+        out.writeLong(count);
+    }
+
+    private DataOutputStream openRunForWriting(File runFile) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), RUN_BUFFER_SIZE));
+    }
+
+    private File getNextRunFile() {
+        return new File(directory, String.format("run-%05d.bin", nextRunNumber++));
+    }
+
+    private static void deleteRuns(ArrayList<File> runs) throws IOException {
+        for (File run: runs) {
+            Files.deleteIfExists(run.toPath());
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * A consumer of the merged n-grams.
+     */
+    public interface NGramConsumer {
+        /**
+         * Accepts a distinct n-gram with its total count.
+         *
+         * @param ids   the word IDs of the n-gram, only valid until the method returns.
+         * @param gram  the number of words of the n-gram.
+         * @param count the total count of the n-gram.
+         * @throws IOException if the n-gram can not be consumed.
+         */
+        void accept(int[] ids, int gram, long count) throws IOException;
+    }
+
+    /**
+     * Reads the records of a run file one by one.
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        private int[] ids = new int[8];
+        private int gram;
+        private long count;
+
+        private RunReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), RUN_BUFFER_SIZE));
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return false if the end of the run is reached.
+         */
+        private boolean next() throws IOException {
+            int b = in.read();
+            if (b == -1) return false;
+
+            gram = b;
+            if (gram > ids.length) ids = new int[gram];
+            for (int i = 0; i < gram; i++) {
+                ids[i] = in.readInt();
+            }
+            count = in.readLong();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package LanguageProcesses.Utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+public class MappedCorpusReader implements Closeable {
+    /**
+     * Initialize the maximum number of bytes mapped at once, big files are mapped
+     *      in windows of this size that always start at a line boundary.
+     * Initialize the channel of the file and the byte range of the file that is read.
+     * Initialize the current mapped window, its offset in the file and the position of
+     *      the next line in it.
+     * Initialize the line that is returned by nextLine, the same object is reused for every line.
+     * Initialize the decoder and the chars buffer used to decode a line only when it is asked for,
+     *      the decoder replaces malformed bytes the same way InputStreamReader does.
+     */
+    private static final int MAX_WINDOW_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long end;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+
+    private final Line line = new Line();
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private CharBuffer chars = CharBuffer.allocate(1024);
+
+    public MappedCorpusReader(File file) throws IOException {
+        this(file, 0, Long.MAX_VALUE);
+    }
+
+    public MappedCorpusReader(File file, long start, long end) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.end = Math.min(end, channel.size());
+        this.windowStart = start;
+        this.position = 0;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Splits a file into byte ranges of at most maxShardSize bytes, and at least one range
+     * per thread when the file is big enough. Every range except the first one starts right
+     * after a line feed, so no line is split between two ranges.
+     *
+     * @param file            the file to be split.
+     * @param fileSize        the number of bytes of the file to be split.
+     * @param numberOfThreads the number of threads that will process the ranges.
+     * @param maxShardSize    the maximum number of bytes of one range.
+     * @return a list of {start, end} byte offsets, in the order they appear in the file.
+     * @throws IOException if there is an error reading from the file.
+     */
+    public static ArrayList<long[]> splitFileIntoShards(File file, long fileSize, int numberOfThreads, long maxShardSize) throws IOException {
+        ArrayList<long[]> shards = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long shardSize = Math.max(1, Math.min(maxShardSize, (fileSize + numberOfThreads - 1) / numberOfThreads));
+
+            long start = 0;
+            while (start < fileSize) {
+                long end = Math.min(findNextLineStart(channel, Math.min(start + shardSize, fileSize)), fileSize);
+                shards.add(new long[]{start, end});
+                start = end;
+            }
+        }
+
+        return shards;
+    }
+
+    /**
+     * Finds the offset right after the first line feed at or after a given offset.
+     *
+     * @param channel the channel of the file.
+     * @param offset  the offset to start searching from.
+     * @return the offset of the start of the next line, or the file size if there is no next line.
+     * @throws IOException if there is an error reading from the file.
+     */
+    public static long findNextLineStart(FileChannel channel, long offset) throws IOException {
+        long fileSize = channel.size();
+        if (offset == 0 || offset >= fileSize) return offset;
+
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = offset - 1;
+        while (position < fileSize) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') return position + i + 1;
+            }
+            position += read;
+        }
+
+        return fileSize;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Reads the next line of the file without copying or decoding its bytes.
+     * A line ends with "\n", "\r" or "\r\n" like in BufferedReader.readLine, and the
+     * line terminator is not part of the line.
+     *
+     * @return the next line, which is only valid until the next call of this method,
+     *         or null if the end of the range is reached.
+     * @throws IOException if there is an error mapping the file, or a line is longer
+     *                     than MAX_WINDOW_SIZE bytes.
+     */
+    public Line nextLine() throws IOException {
+        while (true) {
+            if (windowStart + position >= end) return null;
+            if (window == null || position >= window.limit()) mapWindowAt(windowStart + position);
+
+            int limit = window.limit();
+            boolean isLastWindow = windowStart + limit >= end;
+
+            int i = position;
+            while (i < limit && window.get(i) != '\n' && window.get(i) != '\r') i++;
+
+            int next;
+            if (i < limit) {
+                next = i + 1;
+                if (window.get(i) == '\r') {
+                    if (next < limit) {
+                        if (window.get(next) == '\n') next++;
+                    } else if (!isLastWindow && readByteAt(windowStart + next) == '\n') {
+                        next++;    // "\r" at the end of the window and "\n" at the start of the next one
+                    }
+                }
+            } else if (isLastWindow) {
+                next = limit;
+            } else if (position > 0) {
+                mapWindowAt(windowStart + position);
+                continue;
+            } else {
+                throw new IOException("A line at offset " + windowStart + " is longer than " + MAX_WINDOW_SIZE + " bytes");
+            }
+
+            line.set(position, i - position, windowStart + position);
+            position = next;
+            return line;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Reads one byte of the file outside the current window.
+     *
+     * @param offset the offset of the byte in the file.
+     * @return the byte, or -1 if the offset is after the end of the file.
+     * @throws IOException if there is an error reading from the file.
+     */
+    private int readByteAt(long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        if (channel.read(buffer, offset) <= 0) return -1;
+        return buffer.get(0);
+    }
+
+    /**
+     * Maps a window of the file that starts at the given offset.
+     *
+     * @param offset the offset of the start of the window in the file.
+     * @throws IOException if there is an error mapping the file.
+     */
+    private void mapWindowAt(long offset) throws IOException {
+        long size = Math.min(MAX_WINDOW_SIZE, end - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        windowStart = offset;
+        position = 0;
+    }
+
+    //////////////////////////////
+
+    /**
+     * A line of the file as a slice of the mapped window, its bytes are decoded only
+     * when one of the decode methods is called.
+     */
+    public class Line {
+        private int offset;
+        private int length;
+        private long fileOffset;
+
+        private void set(int offset, int length, long fileOffset) {
+            this.offset = offset;
+            this.length = length;
+            this.fileOffset = fileOffset;
+        }
+
+        public int length() {return length;}
+        public long getFileOffset() {return fileOffset;}
+        public byte byteAt(int i) {return window.get(offset + i);}
+
+        /**
+         * Returns the bytes of the line as a read only view of the mapped window.
+         *
+         * @return the bytes of the line.
+         */
+        public ByteBuffer bytes() {
+            return window.duplicate().position(offset).limit(offset + length).slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * Decodes the line into a chars buffer that is reused for every line of the reader.
+         *
+         * @return the chars of the line, which are only valid until the next line is decoded.
+         */
+        public CharBuffer decodeToChars() {
+            if (chars.capacity() < length) chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+
+            ByteBuffer in = window.duplicate().position(offset).limit(offset + length);
+            chars.clear();
+            decoder.reset();
+            decoder.decode(in, chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            return chars;
+        }
+
+        /**
+         * Decodes the line into a new String.
+         *
+         * @return the line as a String.
+         */
+        public String decode() {
+            return decodeToChars().toString();
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package LanguageProcesses.Utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read only language model saved in a binary file that is memory mapped and queried directly,
+ * so opening it costs a mapping instead of parsing every token, and the pages of the file are
+ * shared by all the processes that open it.
+ *
+ * The tokens are saved as a trie of contexts, where every token of n words is a node at level n
+ * and its children are the tokens of n+1 words that extend it. Each level keeps the last word and
+ * the count of its nodes, and the range of the children of each node in the next level, so a shared
+ * prefix is saved once, and the nodes of a level are sorted by their parent and then by their last
+ * word, which is the same as sorting them by their word IDs. The probability of a token is not saved,
+ * it is calculated when it is queried from its count and the count of its parent, which are found
+ * on the way down the trie.
+ * A compacted model may be quantized instead, where the count of every node is replaced by a code
+ * of 8 or 16 bits, and the probability of a node is the value of its code in the codebook of its level.
+ * Every level also has a blocked Bloom filter of the hashes of its tokens, which rules out most of the
+ * tokens that are not in the model before the trie (or the index) is read.
+ *
+ * The file consists of:
+ *      a header: the magic number, the version, the gram, the number of words in the corpus,
+ *          the number of words in the vocabulary, the number of bits of a code (0 if the model
+ *          is not quantized), the number of the last delta segment counted in the model (0 if none),
+ *          the number of nodes of each level, and the number of blocks of the Bloom filter of each level,
+ *      the vocabulary: the offset of each word in the chars that follow, then the chars of all
+ *          the words in the order of their IDs,
+ *      a section for each level from 1 to the gram: the last word of every node, then the count of
+ *          every node (or the codebook of the level and the code of every node, padded to 4 bytes,
+ *          if the model is quantized), then (except for the last level) the index of the first child
+ *          of every node followed by the number of nodes of the next level, so the children of node i
+ *          are the nodes from firstChild[i] to firstChild[i + 1] - 1,
+ *      the Bloom filters: padding to a multiple of 64 bytes, so every block of a filter is one cache
+ *          line of the mapped file, then the blocks of the filter of each level.
+ * Every number is saved in big endian order.
+ * The sections of the levels and the Bloom filters are mapped as MappedSection windows, so a level can
+ * have more n-grams than the 2GB that one buffer can map.
+ */
+public class MappedLanguageModel implements NGramLookup {
+    /**
+     * Initialize the magic number and the version at the start of the model file.
+     * Initialize the vocabulary of the model, the gram, and the number of words in the corpus.
+     * Initialize the number of bits of a code, which is 0 if the model is not quantized.
+     * Initialize the number of the last delta segment counted in the model, which is the number of the
+     *      segment itself for a delta segment, the number of the last merged segment for a merged model,
+     *      and 0 for a model built from the corpus.
+     * Initialize the number of nodes, the last words, the counts (or the codes and the codebooks) and the
+     *      first children of the nodes of each level, and the Bloom filter of each level, where index 0 is not used.
+     */
+    private static final int MAGIC = 0x4C4D444C;    // "LMDL"
+    private static final int VERSION = 5;
+    private static final int HEADER_SIZE = 36;
+
+    private final Vocabulary vocabulary;
+    private final int gram;
+    private final long numberOfWords;
+    private final int quantizationBits;
+    private final int deltaNumber;
+
+    private final int[] sizes;
+    private final MappedSection[] lastWords;
+    private final MappedSection[] counts;
+    private final MappedSection[] codes;
+    private final double[][] codebooks;
+    private final MappedSection[] firstChildren;
+    private final BlockedBloomFilter[] filters;
+
+    /**
+     * Maps a model file to memory.
+     * The words of the vocabulary are copied to a Vocabulary to look them up by their text,
+     * the nodes are only read from the mapped file when they are queried.
+     *
+     * @param file the model file.
+     * @throws IOException if there is an error mapping the file, or it is not a model file.
+     */
+    public MappedLanguageModel(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IOException(file + " is not a language model file");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " has the unsupported model version " + version + ", build the model again");
+
+            gram = header.getInt();
+            numberOfWords = header.getLong();
+            int vocabularySize = header.getInt();
+            quantizationBits = header.getInt();
+            deltaNumber = header.getInt();
+            int numberOfSizes = header.getInt();
+
+            long position = HEADER_SIZE;
+            IntBuffer sizesBuffer = map(channel, position, numberOfSizes * 4L).asIntBuffer();
+            position += numberOfSizes * 4L;
+            IntBuffer numbersOfBlocks = map(channel, position, numberOfSizes * 4L).asIntBuffer();
+            position += numberOfSizes * 4L;
+
+            IntBuffer wordOffsets = map(channel, position, (vocabularySize + 1) * 4L).asIntBuffer();
+            position += (vocabularySize + 1) * 4L;
+            long charsSize = wordOffsets.get(vocabularySize) * 2L;
+            vocabulary = readVocabulary(map(channel, position, charsSize), wordOffsets, vocabularySize);
+            position += charsSize;
+
+            sizes = new int[gram + 1];
+            lastWords = new MappedSection[gram + 1];
+            counts = new MappedSection[gram + 1];
+            codes = new MappedSection[gram + 1];
+            codebooks = new double[gram + 1][];
+            firstChildren = new MappedSection[gram + 1];
+            for (int n = 1; n <= gram; n++) {
+                sizes[n] = sizesBuffer.get(n - 1);
+                long size = sizes[n];
+                lastWords[n] = new MappedSection(channel, position, size * 4);
+                position += size * 4;
+                if (isQuantized()) {
+                    codebooks[n] = new double[1 << quantizationBits];
+                    map(channel, position, codebooks[n].length * 8L).asDoubleBuffer().get(codebooks[n]);
+                    position += codebooks[n].length * 8L;
+                    codes[n] = new MappedSection(channel, position, size * (quantizationBits / 8));
+                    position += getPaddedSize(size * (quantizationBits / 8));
+                } else {
+                    counts[n] = new MappedSection(channel, position, size * 4);
+                    position += size * 4;
+                }
+                if (n < gram) {
+                    firstChildren[n] = new MappedSection(channel, position, (size + 1) * 4);
+                    position += (size + 1) * 4;
+                }
+            }
+
+            filters = new BlockedBloomFilter[gram + 1];
+            position = getAlignedPosition(position);
+            for (int n = 1; n <= gram; n++) {
+                long filterSize = numbersOfBlocks.get(n - 1) * (long) BlockedBloomFilter.BLOCK_SIZE;
+                filters[n] = new BlockedBloomFilter(new MappedSection(channel, position, filterSize));
+                position += filterSize;
+            }
+        }
+    }
+
+    //////////////////////////////
+
+    public Vocabulary getVocabulary() {return vocabulary;}
+    public int getGram() {return gram;}
+    public long getNumberOfWords() {return numberOfWords;}
+    public int size(int n) {return sizes[n];}
+    public boolean isQuantized() {return quantizationBits != 0;}
+    public int getQuantizationBits() {return quantizationBits;}
+    public int getDeltaNumber() {return deltaNumber;}
+    public double[] getCodebook(int n) {return codebooks[n];}
+    public int getLastWord(int n, int index) {return lastWords[n].getInt(index * 4L);}
+    public int getFirstChild(int n, int index) {return firstChildren[n].getInt(index * 4L);}
+
+    /**
+     * Returns the count of a node, which is not saved in a quantized model.
+     *
+     * @param n     the level of the node.
+     * @param index the index of the node in level n.
+     * @return the count of the node.
+     * @throws UnsupportedOperationException if the model is quantized.
+     */
+    public int getCount(int n, int index) {
+        if (isQuantized()) throw new UnsupportedOperationException("The counts are not saved in a quantized model");
+        return counts[n].getInt(index * 4L);
+    }
+
+    /**
+     * Returns the code of a node in a quantized model.
+     *
+     * @param n     the level of the node.
+     * @param index the index of the node in level n.
+     * @return the index of the probability of the node in the codebook of level n.
+     */
+    public int getCode(int n, int index) {
+        return (quantizationBits == 8) ? codes[n].get(index) & 0xFF : codes[n].getChar(index * 2L);
+    }
+
+    /**
+     * Checks the n-grams that start at a word against the Bloom filters, from the unigram up.
+     * Since a filter never rules out a token that is in the model, a walk from the word can not
+     * find more words than this, and it is skipped when this is 0.
+     *
+     * @param words    the word IDs of a sentence.
+     * @param from     the index of the first word of the run.
+     * @param maxWords the most number of words to check, it is limited by the gram.
+     * @return the number of words of the longest n-gram that might be in the model.
+     */
+    public int getPossibleLength(int[] words, int from, int maxWords) {
+        return getPossibleLength(words, from, maxWords, null);
+    }
+
+    /**
+     * Checks the n-grams that start at a word against the Bloom filters like getPossibleLength,
+     * and keeps the hashes of the n-grams that might be in the model, to look them up in the index.
+     *
+     * @param hashes the array that the hash of the n-gram of n words is written to at [n - 1], or null.
+     */
+    public int getPossibleLength(int[] words, int from, int maxWords, long[] hashes) {
+        long hash = BlockedBloomFilter.EMPTY_NGRAM_HASH;
+        int n = 0;
+        while (n < Math.min(maxWords, gram) && words[from + n] != Vocabulary.UNKNOWN_WORD) {
+            hash = BlockedBloomFilter.extendHash(hash, words[from + n]);
+            if (!filters[n + 1].mightContain(hash)) break;
+            if (hashes != null) hashes[n] = hash;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Finds the child of a node that ends with a given word, using binary search over the
+     * last words of the children, which are sorted.
+     *
+     * @param n      the level of the child, which is the number of words of its token.
+     * @param parent the index of the parent in level n-1, or ROOT for a unigram.
+     * @param word   the ID of the last word of the child.
+     * @return the index of the child in level n, or NOT_FOUND if it is not in the model.
+     */
+    public int findChild(int n, int parent, int word) {
+        if (n < 1 || n > gram || word == Vocabulary.UNKNOWN_WORD) return NOT_FOUND;
+
+        MappedSection words = lastWords[n];
+        int low = (n == 1) ? 0 : getFirstChild(n - 1, parent);
+        int high = (n == 1) ? size(1) - 1 : getFirstChild(n - 1, parent + 1) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int id = words.getInt(middle * 4L);
+
+            if (id < word) low = middle + 1;
+            else if (id > word) high = middle - 1;
+            else return middle;
+        }
+
+        return NOT_FOUND;
+    }
+
+    /**
+     * Walks down the trie along a run of words, each token is found among the children of the previous one.
+     */
+    @Override
+    public int walk(int[] words, int from, int maxWords, int[] path) {
+        int parent = ROOT;
+        int n = 0;
+        while (n < Math.min(maxWords, gram)) {
+            int child = findChild(n + 1, parent, words[from + n]);
+            if (child == NOT_FOUND) break;
+
+            path[n++] = child;
+            parent = child;
+        }
+        return n;
+    }
+
+    /**
+     * Finds a token by walking down the trie along its words.
+     *
+     * @param words         the word IDs of a sentence.
+     * @param from          the index of the first word of the token.
+     * @param numberOfWords the number of words of the token.
+     * @return the index of the token in its level, or NOT_FOUND if it is not in the model
+     *         or has a word that is not in the vocabulary.
+     */
+    public int find(int[] words, int from, int numberOfWords) {
+        if (numberOfWords < 1 || numberOfWords > gram) return NOT_FOUND;
+
+        int node = ROOT;
+        for (int n = 1; n <= numberOfWords; n++) {
+            node = findChild(n, node, words[from + n - 1]);
+            if (node == NOT_FOUND) return NOT_FOUND;
+        }
+        return node;
+    }
+
+    @Override
+    public double getProbability(int n, int index, int parent) {
+        if (isQuantized()) return codebooks[n][getCode(n, index)];
+        if (n == 1) return getCount(1, index) / (double)numberOfWords;
+        return getCount(n, index) / (double)getCount(n - 1, parent);
+    }
+
+    /**
+     * Calculates the probability of a token, finding its parent first.
+     *
+     * @param n     the level of the token.
+     * @param index the index of the token in level n.
+     * @return the probability of the token.
+     */
+    public double getProbability(int n, int index) {
+        return getProbability(n, index, getParent(n, index));
+    }
+
+    /**
+     * Finds the parent of a node using binary search over the first children of the level above it.
+     *
+     * @param n     the level of the node.
+     * @param index the index of the node in level n.
+     * @return the index of its parent in level n-1, or ROOT for a unigram.
+     */
+    public int getParent(int n, int index) {
+        if (n == 1) return ROOT;
+
+        MappedSection firstChild = firstChildren[n - 1];
+        int low = 0;
+        int high = size(n - 1) - 1;
+        while (low < high) {    // the last parent whose first child is not after the node
+            int middle = (low + high + 1) >>> 1;
+            if (firstChild.getInt(middle * 4L) <= index) low = middle;
+            else high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Writes the word IDs of a token to the start of an array, by walking up to its root.
+     *
+     * @param n     the level of the token.
+     * @param index the index of the token in level n.
+     * @param words the array, it must be long enough for the token.
+     */
+    public void getWordIds(int n, int index, int[] words) {
+        for (int level = n; level >= 1; level--) {
+            words[level - 1] = getLastWord(level, index);
+            index = getParent(level, index);
+        }
+    }
+
+    /**
+     * Exports the model to a CSV file, where each row consists of four columns:
+     * the token's text, its gram value, its count in the corpus (empty if the model is quantized),
+     * and its probability.
+     * The tokens are written in depth first order, each one right before the tokens that extend it.
+     *
+     * @param file the CSV file.
+     * @throws IOException if there is an error writing to the CSV file.
+     */
+    public void exportToCsv(File file) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8));
+        int[] words = new int[gram];
+        exportChildrenToCsv(bw, 1, ROOT, 0, size(1), words);
+        bw.close();
+    }
+
+    private void exportChildrenToCsv(BufferedWriter bw, int n, int parent, int from, int to, int[] words) throws IOException {
+        for (int index = from; index < to; index++) {
+            words[n - 1] = getLastWord(n, index);
+            String count = isQuantized() ? "" : String.valueOf(getCount(n, index));
+            bw.write(vocabulary.toText(words, 0, n) + "," + n + "," + count + "," + getProbability(n, index, parent));
+            bw.newLine();
+
+            if (n < gram)
+                exportChildrenToCsv(bw, n + 1, index, getFirstChild(n, index), getFirstChild(n, index + 1), words);
+        }
+    }
+
+    //////////////////////////////
+
+    private static long getPaddedSize(long size) {
+        return (size + 3) & ~3L;
+    }
+
+    private static long getAlignedPosition(long position) {
+        return (position + BlockedBloomFilter.BLOCK_SIZE - 1) & -BlockedBloomFilter.BLOCK_SIZE;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (position + size > channel.size()) throw new IOException("The language model file is truncated");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    private static Vocabulary readVocabulary(ByteBuffer chars, IntBuffer wordOffsets, int vocabularySize) {
+        Vocabulary vocabulary = new Vocabulary();
+        StringBuilder word = new StringBuilder();
+        for (int id = 0; id < vocabularySize; id++) {
+            word.setLength(0);
+            for (int i = wordOffsets.get(id); i < wordOffsets.get(id + 1); i++) {
+                word.append(chars.getChar(i * 2));
+            }
+            vocabulary.getOrAddId(word, 0, word.length());
+        }
+        return vocabulary;
+    }
+
+    /**
+     * Reads the number of the last delta segment counted in a model file from its header,
+     * without mapping the rest of the file.
+     *
+     * @param file the model file.
+     * @return the number of the last delta segment counted in the model, 0 if none.
+     * @throws IOException if there is an error reading the file, or it is not a model file.
+     */
+    public static int readDeltaNumber(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                throw new IOException(file + " is not a language model file of version " + VERSION);
+            return header.getInt(HEADER_SIZE - 8);
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * Writes a model file from tokens that are added in depth first order, where every token is added
+     * right after its n-1 gram prefix and the other tokens that extend it, and the tokens with the same
+     * prefix are added sorted by their last word. The arrays of each level are first written to temporary
+     * files next to the model file, and then joined into it after the header and the vocabulary, so the
+     * tokens never need to be held in memory. The hashes of the tokens are kept in temporary files too,
+     * until the number of tokens of each level is known and its Bloom filter can be sized.
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+        private final int gram;
+        private final int quantizationBits;
+        private final double[][] codebooks;
+        private final int[] sizes;
+        private final File[] sectionFiles;
+        private final DataOutputStream[] lastWordsOut;
+        private final DataOutputStream[] payloadsOut;
+        private final DataOutputStream[] firstChildrenOut;
+        private final DataOutputStream[] hashesOut;
+        private final long[] prefixHashes;
+
+        public Writer(File file, int gram) throws IOException {
+            this(file, gram, 0, null);
+        }
+
+        /**
+         * Creates a writer of a quantized model, or of a model with counts if quantizationBits is 0.
+         *
+         * @param file             the model file.
+         * @param gram             the gram of the model.
+         * @param quantizationBits the number of bits of a code, 8 or 16, or 0 to save the counts.
+         * @param codebooks        the codebook of each level, with 2^quantizationBits probabilities each,
+         *                         where index 0 is not used, or null to save the counts.
+         * @throws IOException if a temporary file can not be created.
+         */
+        public Writer(File file, int gram, int quantizationBits, double[][] codebooks) throws IOException {
+            if (quantizationBits != 0 && quantizationBits != 8 && quantizationBits != 16)
+                throw new IllegalArgumentException("A model can only be quantized to 8 or 16 bits");
+
+            this.file = file;
+            this.gram = gram;
+            this.quantizationBits = quantizationBits;
+            this.codebooks = codebooks;
+            this.sizes = new int[gram + 2];
+            this.sectionFiles = new File[gram * 4];
+            this.lastWordsOut = new DataOutputStream[gram + 1];
+            this.payloadsOut = new DataOutputStream[gram + 1];
+            this.firstChildrenOut = new DataOutputStream[gram + 1];
+            this.hashesOut = new DataOutputStream[gram + 1];
+            this.prefixHashes = new long[gram + 1];
+
+            File directory = file.getAbsoluteFile().getParentFile();
+            for (int n = 1; n <= gram; n++) {
+                lastWordsOut[n] = openSection(directory, (n - 1) * 4);
+                payloadsOut[n] = openSection(directory, (n - 1) * 4 + 1);
+                if (n < gram) firstChildrenOut[n] = openSection(directory, (n - 1) * 4 + 2);
+                hashesOut[n] = openSection(directory, (n - 1) * 4 + 3);
+            }
+        }
+
+        /**
+         * Adds a token with its count as a node of the trie. Since the tokens are added in depth
+         * first order, the children of the node are the next nodes added to the level below it.
+         *
+         * @param words the word IDs of the token.
+         * @param n     the number of words of the token.
+         * @param count the count of the token.
+         * @throws IOException if there is an error writing to a temporary file.
+         */
+        public void add(int[] words, int n, long count) throws IOException {
+            if (quantizationBits != 0) throw new IllegalStateException("The tokens of a quantized model are added with their codes");
+            payloadsOut[n].writeInt(Math.toIntExact(count));
+            addNode(words, n);
+        }
+
+        /**
+         * Adds a token with the code of its probability as a node of a quantized trie.
+         *
+         * @param words the word IDs of the token.
+         * @param n     the number of words of the token.
+         * @param code  the index of the probability of the token in the codebook of level n.
+         * @throws IOException if there is an error writing to a temporary file.
+         */
+        public void addQuantized(int[] words, int n, int code) throws IOException {
+            if (quantizationBits == 0) throw new IllegalStateException("The tokens of a model with counts are added with their counts");
+            if (quantizationBits == 8) payloadsOut[n].writeByte(code);
+            else payloadsOut[n].writeChar(code);
+            addNode(words, n);
+        }
+
+        /**
+         * Adds the last word, the first child and the hash of a node, where the hash of its prefix
+         * is the hash of the last node added to the level above it.
+         */
+        private void addNode(int[] words, int n) throws IOException {
+            lastWordsOut[n].writeInt(words[n - 1]);
+            if (n < gram) firstChildrenOut[n].writeInt(sizes[n + 1]);
+
+            long prefixHash = (n == 1) ? BlockedBloomFilter.EMPTY_NGRAM_HASH : prefixHashes[n - 1];
+            prefixHashes[n] = BlockedBloomFilter.extendHash(prefixHash, words[n - 1]);
+            hashesOut[n].writeLong(prefixHashes[n]);
+            sizes[n]++;
+        }
+
+        /**
+         * Writes the model file from the added tokens, of a model built from the corpus.
+         *
+         * @param vocabulary    the vocabulary of the word IDs.
+         * @param numberOfWords the number of words in the corpus.
+         * @throws IOException if there is an error writing the model file.
+         */
+        public void finish(Vocabulary vocabulary, long numberOfWords) throws IOException {
+            finish(vocabulary, numberOfWords, 0);
+        }
+
+        /**
+         * Writes the model file from the added tokens.
+         *
+         * @param vocabulary    the vocabulary of the word IDs.
+         * @param numberOfWords the number of words in the corpus.
+         * @param deltaNumber   the number of the last delta segment counted in the model, 0 if none.
+         * @throws IOException if there is an error writing the model file.
+         */
+        public void finish(Vocabulary vocabulary, long numberOfWords, int deltaNumber) throws IOException {
+            for (int n = 1; n < gram; n++) {
+                firstChildrenOut[n].writeInt(sizes[n + 1]);
+            }
+            closeSections();
+
+            FileOutputStream fileOut = new FileOutputStream(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(gram);
+            out.writeLong(numberOfWords);
+            out.writeInt(vocabulary.size());
+            out.writeInt(quantizationBits);
+            out.writeInt(deltaNumber);
+            out.writeInt(gram);
+            for (int n = 1; n <= gram; n++) {
+                out.writeInt(sizes[n]);
+            }
+            for (int n = 1; n <= gram; n++) {
+                out.writeInt(BlockedBloomFilter.getNumberOfBlocks(sizes[n]));
+            }
+
+            int offset = 0;
+            for (int id = 0; id < vocabulary.size(); id++) {
+                out.writeInt(offset);
+                offset += vocabulary.getWord(id).length();
+            }
+            out.writeInt(offset);
+            for (int id = 0; id < vocabulary.size(); id++) {
+                out.writeChars(vocabulary.getWord(id));
+            }
+
+            for (int n = 1; n <= gram; n++) {
+                copySection(out, (n - 1) * 4);
+                if (quantizationBits != 0) {
+                    for (double probability: codebooks[n]) {
+                        out.writeDouble(probability);
+                    }
+                    copySection(out, (n - 1) * 4 + 1);
+                    long codesSize = (long) sizes[n] * (quantizationBits / 8);
+                    for (long i = codesSize; i < getPaddedSize(codesSize); i++) {
+                        out.writeByte(0);
+                    }
+                } else {
+                    copySection(out, (n - 1) * 4 + 1);
+                }
+                if (n < gram) copySection(out, (n - 1) * 4 + 2);
+            }
+
+            out.flush();
+            long position = fileOut.getChannel().position();
+            for (long i = position; i < getAlignedPosition(position); i++) {
+                out.writeByte(0);
+            }
+            for (int n = 1; n <= gram; n++) {
+                writeFilter(out, n);
+            }
+            out.close();
+        }
+
+        /**
+         * Deletes the temporary files.
+         */
+        @Override
+        public void close() throws IOException {
+            closeSections();
+            for (File sectionFile: sectionFiles) {
+                if (sectionFile != null) Files.deleteIfExists(sectionFile.toPath());
+            }
+        }
+
+        /**
+         * Builds the Bloom filter of a level from the hashes of its tokens, and writes it.
+         */
+        private void writeFilter(DataOutputStream out, int n) throws IOException {
+            BlockedBloomFilter filter = new BlockedBloomFilter(sizes[n]);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sectionFiles[(n - 1) * 4 + 3])))) {
+                for (int i = 0; i < sizes[n]; i++) {
+                    filter.add(in.readLong());
+                }
+            }
+            filter.writeTo(out);
+        }
+
+        private void copySection(DataOutputStream out, int number) throws IOException {
+            out.flush();
+            Files.copy(sectionFiles[number].toPath(), out);
+        }
+
+        private void closeSections() throws IOException {
+            for (int n = 1; n <= gram; n++) {
+                lastWordsOut[n].close();
+                payloadsOut[n].close();
+                if (n < gram) firstChildrenOut[n].close();
+                hashesOut[n].close();
+            }
+        }
+
+        private DataOutputStream openSection(File directory, int number) throws IOException {
+            sectionFiles[number] = File.createTempFile("model-section-" + number + "-", ".bin", directory);
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sectionFiles[number])));
+        }
+    }
+}
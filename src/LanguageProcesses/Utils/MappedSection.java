@@ -0,0 +1,73 @@
+package LanguageProcesses.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A section of a file that is mapped in windows of at most MAX_WINDOW_SIZE bytes and read by its
+ * position in bytes, so a section can be bigger than the 2GB that one buffer can map.
+ * The windows start at multiples of MAX_WINDOW_SIZE from the start of the section, so an int, a long
+ * or a block of the Bloom filter at a multiple of its size from the start is never split between two windows.
+ */
+class MappedSection {
+    /**
+     * Initialize the maximum number of bytes mapped by one window.
+     * Initialize the windows of the section and its size in bytes.
+     */
+    static final int MAX_WINDOW_SIZE = 1 << 30;
+
+    private final ByteBuffer[] windows;
+    private final long size;
+
+    /**
+     * Maps a section of a file.
+     *
+     * @param channel  the channel of the file.
+     * @param position the position of the section in the file.
+     * @param size     the number of bytes of the section.
+     * @throws IOException if there is an error mapping the file, or the section is not all in the file.
+     */
+    MappedSection(FileChannel channel, long position, long size) throws IOException {
+        if (size < 0 || position + size > channel.size()) throw new IOException("The file is truncated at " + position + " + " + size + " bytes");
+
+        this.size = size;
+        windows = new ByteBuffer[(int) ((size + MAX_WINDOW_SIZE - 1) / MAX_WINDOW_SIZE)];
+        for (int i = 0; i < windows.length; i++) {
+            long start = (long) i * MAX_WINDOW_SIZE;
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + start, Math.min(MAX_WINDOW_SIZE, size - start));
+        }
+    }
+
+    //////////////////////////////
+
+    long getSize() {return size;}
+
+    byte get(long position) {
+        return windows[(int) (position / MAX_WINDOW_SIZE)].get((int) (position % MAX_WINDOW_SIZE));
+    }
+
+    char getChar(long position) {
+        return windows[(int) (position / MAX_WINDOW_SIZE)].getChar((int) (position % MAX_WINDOW_SIZE));
+    }
+
+    int getInt(long position) {
+        return windows[(int) (position / MAX_WINDOW_SIZE)].getInt((int) (position % MAX_WINDOW_SIZE));
+    }
+
+    long getLong(long position) {
+        return windows[(int) (position / MAX_WINDOW_SIZE)].getLong((int) (position % MAX_WINDOW_SIZE));
+    }
+
+    /**
+     * Returns the windows as buffers of longs, one per window.
+     */
+    LongBuffer[] asLongBuffers() {
+        LongBuffer[] buffers = new LongBuffer[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            buffers[i] = windows[i].asLongBuffer();
+        }
+        return buffers;
+    }
+}
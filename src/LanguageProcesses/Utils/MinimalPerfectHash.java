@@ -0,0 +1,292 @@
+package LanguageProcesses.Utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A minimal perfect hash function over a fixed set of distinct long keys, which maps every key of
+ * the set to a different index from 0 to the number of keys - 1, using about 2.6 bits per key.
+ * A key that is not in the set is mapped to some index too, so the caller keeps a fingerprint of
+ * each key at its index to reject the other keys.
+ *
+ * It is built with the BDZ algorithm: every key is an edge between three vertices (one in each third
+ * of about 1.23 vertices per key), and the graph is peeled by removing the edges that have a vertex
+ * that no other edge has. Walking the removed edges backwards, each vertex of a removed edge gets a
+ * value from 0 to 2, so that the sum of the values of the three vertices of a key picks the vertex
+ * that was free when its edge was removed. That vertex is unique for each key, and it is turned into
+ * a minimal index by counting the picked vertices before it, where the vertices that were never
+ * picked have the value 3. The values are packed 2 bits each, with the count of the picked vertices
+ * before every block of 256 vertices.
+ */
+public class MinimalPerfectHash {
+    /**
+     * Initialize the number of vertices per key, and the most seeds that are tried before adding more vertices.
+     * Initialize the number of vertices in each block of ranks, and the number of longs of values in a block.
+     * Initialize the seed of the hash, the number of vertices in each third, the packed values of the
+     *      vertices, and the number of picked vertices before each block.
+     */
+    private static final double VERTICES_PER_KEY = 1.23;
+    private static final int MAX_SEEDS = 64;
+    private static final int VERTICES_PER_BLOCK = 256;
+    private static final int LONGS_PER_BLOCK = VERTICES_PER_BLOCK / 32;
+
+    private final long seed;
+    private final int verticesPerPart;
+    private final LongBuffer values;
+    private final IntBuffer ranks;
+
+    private MinimalPerfectHash(long seed, int verticesPerPart, LongBuffer values, IntBuffer ranks) {
+        this.seed = seed;
+        this.verticesPerPart = verticesPerPart;
+        this.values = values;
+        this.ranks = ranks;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Builds the function of a set of keys, trying new seeds (and then more vertices) until the graph
+     * of the keys can be peeled completely, which happens for most seeds.
+     *
+     * @param keys the distinct keys.
+     * @return the function of the keys.
+     * @throws IllegalArgumentException if the keys are not distinct.
+     */
+    public static MinimalPerfectHash build(long[] keys) {
+        double verticesPerKey = VERTICES_PER_KEY;
+        while (true) {
+            int verticesPerPart = (int) Math.ceil(keys.length * verticesPerKey / 3) + 1;
+            for (long seed = 0; seed < MAX_SEEDS; seed++) {
+                MinimalPerfectHash function = tryToBuild(keys, seed, verticesPerPart);
+                if (function != null) return function;
+            }
+
+            if (verticesPerKey > 2 * VERTICES_PER_KEY)
+                throw new IllegalArgumentException("The keys of the perfect hash are not distinct");
+            verticesPerKey += 0.1;
+        }
+    }
+
+    /**
+     * Reads a function that was written by writeTo from a buffer.
+     *
+     * @param buffer the buffer, positioned at the start of the function, and moved to its end.
+     * @return the function, which reads its values from the buffer.
+     */
+    public static MinimalPerfectHash read(ByteBuffer buffer) {
+        long seed = buffer.getLong();
+        int verticesPerPart = buffer.getInt();
+        int numberOfValues = buffer.getInt();
+        int numberOfRanks = buffer.getInt();
+
+        LongBuffer values = slice(buffer, numberOfValues * 8).asLongBuffer();
+        IntBuffer ranks = slice(buffer, numberOfRanks * 4).asIntBuffer();
+        return new MinimalPerfectHash(seed, verticesPerPart, values, ranks);
+    }
+
+    /**
+     * Writes the function, so it can be read back by read.
+     *
+     * @param out the output stream.
+     * @throws IOException if there is an error writing to the stream.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(seed);
+        out.writeInt(verticesPerPart);
+        out.writeInt(values.limit());
+        out.writeInt(ranks.limit());
+        for (int i = 0; i < values.limit(); i++) out.writeLong(values.get(i));
+        for (int i = 0; i < ranks.limit(); i++) out.writeInt(ranks.get(i));
+    }
+
+    /**
+     * Returns the number of bytes written by writeTo.
+     */
+    public long getSizeInBytes() {
+        return 20 + values.limit() * 8L + ranks.limit() * 4L;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Maps a key to its index.
+     *
+     * @param key the key.
+     * @return the index of the key if it is in the set, or some index from 0 to the number of keys if it is not.
+     */
+    public int getIndex(long key) {
+        return (int) getIndexAndFingerprint(key);
+    }
+
+    /**
+     * Maps a key to its index and to a fingerprint of 16 bits, which does not depend on the bits used
+     * to pick its vertices, so two keys with the same index have the same fingerprint only by chance.
+     *
+     * @param key the key.
+     * @return the fingerprint in the high 32 bits and the index in the low 32 bits.
+     */
+    public long getIndexAndFingerprint(long key) {
+        long hash = hash(key, seed);
+        long secondHash = mix(hash + 0x9E3779B97F4A7C15L);
+        int first = reduce((int) hash, verticesPerPart);
+        int second = verticesPerPart + reduce((int) (hash >>> 32), verticesPerPart);
+        int third = 2 * verticesPerPart + reduce((int) secondHash, verticesPerPart);
+
+        int vertex;
+        switch ((getValue(first) + getValue(second) + getValue(third)) % 3) {
+            case 0: vertex = first; break;
+            case 1: vertex = second; break;
+            default: vertex = third;
+        }
+        return ((secondHash >>> 48) << 32) | rank(vertex);
+    }
+
+    //////////////////////////////
+
+    /**
+     * Peels the graph of the keys with a seed, and assigns the values of its vertices.
+     *
+     * @return the function, or null if the graph can not be peeled completely.
+     */
+    private static MinimalPerfectHash tryToBuild(long[] keys, long seed, int verticesPerPart) {
+        int numberOfVertices = verticesPerPart * 3;
+        int[] edges = new int[keys.length * 3];
+        int[] degrees = new int[numberOfVertices];
+        int[] xorOfEdges = new int[numberOfVertices];    // the edge of a vertex of degree 1 is the xor of its edges
+
+        for (int edge = 0; edge < keys.length; edge++) {
+            int[] vertices = getVertices(hash(keys[edge], seed), verticesPerPart);
+            for (int i = 0; i < 3; i++) {
+                edges[edge * 3 + i] = vertices[i];
+                degrees[vertices[i]]++;
+                xorOfEdges[vertices[i]] ^= edge;
+            }
+        }
+
+        int[] peeledEdges = new int[keys.length];
+        int[] freeVertices = new int[keys.length];
+        int numberOfPeeledEdges = 0;
+        int[] stack = new int[numberOfVertices];
+        int stackSize = 0;
+        for (int vertex = 0; vertex < numberOfVertices; vertex++) {
+            if (degrees[vertex] == 1) stack[stackSize++] = vertex;
+        }
+
+        while (stackSize > 0) {
+            int vertex = stack[--stackSize];
+            if (degrees[vertex] != 1) continue;
+
+            int edge = xorOfEdges[vertex];
+            peeledEdges[numberOfPeeledEdges] = edge;
+            freeVertices[numberOfPeeledEdges++] = vertex;
+            for (int i = 0; i < 3; i++) {
+                int other = edges[edge * 3 + i];
+                degrees[other]--;
+                xorOfEdges[other] ^= edge;
+                if (degrees[other] == 1) stack[stackSize++] = other;
+            }
+        }
+        if (numberOfPeeledEdges != keys.length) return null;
+
+        byte[] vertexValues = new byte[numberOfVertices];
+        boolean[] assigned = new boolean[numberOfVertices];
+        for (int i = numberOfPeeledEdges - 1; i >= 0; i--) {
+            int edge = peeledEdges[i];
+            int vertex = freeVertices[i];
+
+            int position = 0;
+            int sumOfOthers = 0;
+            for (int j = 0; j < 3; j++) {
+                int other = edges[edge * 3 + j];
+                if (other == vertex) position = j;
+                else sumOfOthers += vertexValues[other];
+            }
+            vertexValues[vertex] = (byte) Math.floorMod(position - sumOfOthers, 3);
+            assigned[vertex] = true;
+        }
+
+        int numberOfBlocks = (numberOfVertices + VERTICES_PER_BLOCK - 1) / VERTICES_PER_BLOCK;
+        long[] values = new long[numberOfBlocks * LONGS_PER_BLOCK];
+        int[] ranks = new int[numberOfBlocks];
+        int picked = 0;
+        for (int vertex = 0; vertex < numberOfBlocks * VERTICES_PER_BLOCK; vertex++) {
+            if (vertex % VERTICES_PER_BLOCK == 0) ranks[vertex / VERTICES_PER_BLOCK] = picked;
+
+            long value = (vertex < numberOfVertices && assigned[vertex]) ? vertexValues[vertex] : 3;
+            values[vertex / 32] |= value << ((vertex % 32) * 2);
+            if (value != 3) picked++;
+        }
+
+        return new MinimalPerfectHash(seed, verticesPerPart, LongBuffer.wrap(values), IntBuffer.wrap(ranks));
+    }
+
+    /**
+     * Returns the value of a vertex, where the vertices that were never picked count as 0.
+     */
+    private int getValue(int vertex) {
+        int value = (int) (values.get(vertex / 32) >>> ((vertex % 32) * 2)) & 3;
+        return (value == 3) ? 0 : value;
+    }
+
+    /**
+     * Counts the picked vertices before a vertex, from the count before its block.
+     */
+    private int rank(int vertex) {
+        int block = vertex / VERTICES_PER_BLOCK;
+        int rank = ranks.get(block);
+
+        int firstLong = block * LONGS_PER_BLOCK;
+        int lastLong = vertex / 32;
+        for (int i = firstLong; i <= lastLong; i++) {
+            long word = values.get(i);
+            int numberOfValues = 32;
+            if (i == lastLong) {
+                numberOfValues = vertex % 32;
+                word |= -1L << (numberOfValues * 2);    // the values from the vertex on count as not picked
+                if (numberOfValues == 0) continue;
+            }
+            long notPicked = word & (word >>> 1) & 0x5555555555555555L;
+            rank += 32 - Long.bitCount(notPicked);
+        }
+
+        return rank;
+    }
+
+    /**
+     * Returns the three vertices of a key, the same way getIndex does.
+     */
+    private static int[] getVertices(long hash, int verticesPerPart) {
+        long second = mix(hash + 0x9E3779B97F4A7C15L);
+        return new int[] {
+                reduce((int) hash, verticesPerPart),
+                verticesPerPart + reduce((int) (hash >>> 32), verticesPerPart),
+                2 * verticesPerPart + reduce((int) second, verticesPerPart)
+        };
+    }
+
+    /**
+     * Maps 32 random bits to a number from 0 to n - 1 without a division.
+     */
+    private static int reduce(int bits, int n) {
+        return (int) (((bits & 0xFFFFFFFFL) * n) >>> 32);
+    }
+
+    private static long hash(long key, long seed) {
+        return mix(key ^ mix(seed + 0x632BE59BD9B4E019L));
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+        x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return x ^ (x >>> 33);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int size) {
+        ByteBuffer slice = buffer.slice().limit(size);
+        buffer.position(buffer.position() + size);
+        return slice;
+    }
+}
@@ -0,0 +1,211 @@
+package LanguageProcesses.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Compacts a language model into a smaller model file, trading some fidelity of the scores for memory.
+ * The n-grams of 2 words or more can be pruned when their count is below a minimum count, or when
+ * removing them moves the model less than an entropy threshold, where the move is Stolcke's relative
+ * entropy of an n-gram: P(h, w) * log(P(w | h) / P(w | h')), the probability of the n-gram in the
+ * corpus times how much its history h predicts its last word w better than the history h' without
+ * its first word. An n-gram that has an n-gram extending it that is kept is always kept, and the
+ * unigrams are always kept, so the vocabulary does not change.
+ * The probabilities of the kept n-grams can then be quantized to codes of 8 or 16 bits, with a
+ * codebook for each gram whose values split the probabilities of that gram into bins of the same
+ * number of n-grams, each bin represented by the mean of its probabilities.
+ */
+public class ModelCompactor {
+    /**
+     * Initialize the minimum count of a kept n-gram, the minimum relative entropy of a kept n-gram
+     *      (0 to not prune by entropy), and the number of bits of a code (0 to keep the counts).
+     */
+    private final int minimumCount;
+    private final double entropyThreshold;
+    private final int quantizationBits;
+
+    public ModelCompactor(int minimumCount, double entropyThreshold, int quantizationBits) {
+        if (quantizationBits != 0 && quantizationBits != 8 && quantizationBits != 16)
+            throw new IllegalArgumentException("A model can only be quantized to 8 or 16 bits");
+
+        this.minimumCount = minimumCount;
+        this.entropyThreshold = entropyThreshold;
+        this.quantizationBits = quantizationBits;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Writes the compacted model of a model to a file.
+     *
+     * @param model the model, with its counts.
+     * @param file  the file of the compacted model.
+     * @throws IOException if the model is already quantized, or there is an error writing the file.
+     */
+    public void compact(MappedLanguageModel model, File file) throws IOException {
+        if (model.isQuantized()) throw new IOException("A quantized model can not be compacted again, compact the full model");
+
+        int gram = model.getGram();
+        BitSet[] kept = new BitSet[gram + 1];
+        for (int n = 1; n <= gram; n++) {
+            kept[n] = new BitSet(model.size(n));
+        }
+        int[] words = new int[gram];
+        int[] path = new int[gram];
+        for (int index = 0; index < model.size(1); index++) {
+            markKeptNodes(model, kept, 1, index, NGramLookup.ROOT, words, path);
+        }
+
+        Quantizer[] quantizers = (quantizationBits == 0) ? null : createQuantizers(model, kept);
+        double[][] codebooks = null;
+        if (quantizers != null) {
+            codebooks = new double[gram + 1][];
+            for (int n = 1; n <= gram; n++) codebooks[n] = quantizers[n].codebook;
+        }
+
+        try (MappedLanguageModel.Writer writer = new MappedLanguageModel.Writer(file, gram, quantizationBits, codebooks)) {
+            writeKeptNodes(model, kept, quantizers, writer, 1, NGramLookup.ROOT, 0, model.size(1), words);
+            writer.finish(model.getVocabulary(), model.getNumberOfWords(), model.getDeltaNumber());
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * Decides which nodes of a subtree are kept, the children before their parent.
+     *
+     * @return true if the node is kept.
+     */
+    private boolean markKeptNodes(MappedLanguageModel model, BitSet[] kept, int n, int index, int parent, int[] words, int[] path) {
+        words[n - 1] = model.getLastWord(n, index);
+
+        boolean hasKeptChild = false;
+        if (n < model.getGram()) {
+            for (int child = model.getFirstChild(n, index); child < model.getFirstChild(n, index + 1); child++) {
+                hasKeptChild |= markKeptNodes(model, kept, n + 1, child, index, words, path);
+            }
+        }
+
+        boolean keep = n == 1 || hasKeptChild
+                || (model.getCount(n, index) >= minimumCount
+                    && (entropyThreshold <= 0 || getRelativeEntropy(model, n, index, parent, words, path) >= entropyThreshold));
+        if (keep) kept[n].set(index);
+        return keep;
+    }
+
+    /**
+     * Calculates the relative entropy of an n-gram, whose words are at the start of the words array.
+     * The n-1 gram suffix of the n-gram is always in the model, since every run of words of the
+     * corpus is counted.
+     */
+    private static double getRelativeEntropy(MappedLanguageModel model, int n, int index, int parent, int[] words, int[] path) {
+        if (model.walk(words, 1, n - 1, path) < n - 1) return Double.POSITIVE_INFINITY;
+
+        double probability = model.getProbability(n, index, parent);
+        double lowerOrderProbability = model.getProbability(n - 1, path[n - 2], (n == 2) ? NGramLookup.ROOT : path[n - 3]);
+        double jointProbability = model.getCount(n, index) / (double) model.getNumberOfWords();
+        return jointProbability * Math.log(probability / lowerOrderProbability);
+    }
+
+    /**
+     * Creates the quantizer of each gram from the probabilities of its kept n-grams.
+     */
+    private Quantizer[] createQuantizers(MappedLanguageModel model, BitSet[] kept) {
+        int gram = model.getGram();
+        double[][] probabilities = new double[gram + 1][];
+        int[] numberOfProbabilities = new int[gram + 1];
+        for (int n = 1; n <= gram; n++) {
+            probabilities[n] = new double[kept[n].cardinality()];
+        }
+        collectProbabilities(model, kept, probabilities, numberOfProbabilities, 1, NGramLookup.ROOT, 0, model.size(1));
+
+        Quantizer[] quantizers = new Quantizer[gram + 1];
+        for (int n = 1; n <= gram; n++) {
+            quantizers[n] = new Quantizer(probabilities[n], 1 << quantizationBits);
+        }
+        return quantizers;
+    }
+
+    private static void collectProbabilities(MappedLanguageModel model, BitSet[] kept, double[][] probabilities,
+                                             int[] numberOfProbabilities, int n, int parent, int from, int to) {
+        for (int index = kept[n].nextSetBit(from); index >= 0 && index < to; index = kept[n].nextSetBit(index + 1)) {
+            probabilities[n][numberOfProbabilities[n]++] = model.getProbability(n, index, parent);
+            if (n < model.getGram())
+                collectProbabilities(model, kept, probabilities, numberOfProbabilities, n + 1, index,
+                        model.getFirstChild(n, index), model.getFirstChild(n, index + 1));
+        }
+    }
+
+    /**
+     * Writes the kept nodes of a range of siblings and of their subtrees in depth first order.
+     */
+    private static void writeKeptNodes(MappedLanguageModel model, BitSet[] kept, Quantizer[] quantizers,
+                                       MappedLanguageModel.Writer writer, int n, int parent, int from, int to, int[] words) throws IOException {
+        for (int index = kept[n].nextSetBit(from); index >= 0 && index < to; index = kept[n].nextSetBit(index + 1)) {
+            words[n - 1] = model.getLastWord(n, index);
+            if (quantizers == null) writer.add(words, n, model.getCount(n, index));
+            else writer.addQuantized(words, n, quantizers[n].encode(model.getProbability(n, index, parent)));
+
+            if (n < model.getGram())
+                writeKeptNodes(model, kept, quantizers, writer, n + 1, index,
+                        model.getFirstChild(n, index), model.getFirstChild(n, index + 1), words);
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * The codebook of one gram, with the lowest probability of each bin.
+     * If there are not more distinct probabilities than codes, each probability has its own code.
+     */
+    private static class Quantizer {
+        private final double[] lowerBounds;
+        private final int numberOfBins;
+        private final double[] codebook;
+
+        private Quantizer(double[] probabilities, int numberOfCodes) {
+            double[] sorted = probabilities.clone();
+            Arrays.sort(sorted);
+
+            int numberOfDistinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) numberOfDistinct++;
+            }
+
+            lowerBounds = new double[numberOfCodes];
+            int bins = 0;
+            if (numberOfDistinct <= numberOfCodes) {
+                for (int i = 0; i < sorted.length; i++) {
+                    if (i == 0 || sorted[i] != sorted[i - 1]) lowerBounds[bins++] = sorted[i];
+                }
+            } else {
+                for (int bin = 0; bin < numberOfCodes; bin++) {
+                    double start = sorted[(int) ((long) bin * sorted.length / numberOfCodes)];
+                    if (bins == 0 || start > lowerBounds[bins - 1]) lowerBounds[bins++] = start;
+                }
+            }
+            numberOfBins = bins;
+
+            codebook = new double[numberOfCodes];
+            int[] sizes = new int[numberOfCodes];
+            for (double probability: sorted) {
+                int code = encode(probability);
+                codebook[code] += probability;
+                sizes[code]++;
+            }
+            for (int code = 0; code < numberOfBins; code++) {
+                codebook[code] /= sizes[code];
+            }
+        }
+
+        /**
+         * Returns the code of the bin of a probability, the last bin whose lowest probability is not above it.
+         */
+        private int encode(double probability) {
+            int code = Arrays.binarySearch(lowerBounds, 0, numberOfBins, probability);
+            return (code >= 0) ? code : Math.max(-code - 2, 0);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package LanguageProcesses.Utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A read only index of a language model for scoring, saved in its own memory mapped file next to the
+ * model and built from it. Every n-gram is keyed by the hash of its word IDs, the same hash that the
+ * Bloom filters of the model use, which is built word by word from the hash of its n-1 gram prefix, so
+ * the keys of all the n-grams that start at a word are found in one scan over the IDs, and the slot of
+ * an n-gram does not depend on the slot of its prefix. A minimal perfect hash of the keys of each gram
+ * gives every n-gram its own slot, so a query costs one hash and one read per word instead of a binary
+ * search, and the index takes a few bits per n-gram plus its payload.
+ * The payload of each slot packs a fingerprint of 16 bits of its key with the count of its n-gram in
+ * one long, or with the code of its probability if the model is quantized. The perfect hash maps an n-gram that is not in the model to some slot too, and the
+ * fingerprint rejects it unless it matches by chance, which happens once in 65536 absent queries.
+ * The keys of a very big model may not all be distinct, then the hashes are started from a seed instead,
+ * and the index is no longer keyed by the hashes of the filters.
+ *
+ * The file consists of a header (the magic number, the version, the gram, the number of words in the
+ * corpus, the seed of the keys, the number of bits of a code, and the number of n-grams of each gram), then for each gram
+ * the perfect hash, the codebook of the gram if the model is quantized, and the payload of every slot.
+ * The payloads are mapped as MappedSection windows, so a gram can have more n-grams than the 2GB that
+ * one buffer can map.
+ */
+public class ModelIndex implements NGramLookup {
+    /**
+     * Initialize the magic number and the version at the start of the index file.
+     * Initialize the position of the fingerprint in a payload, and the mask of the count or the code.
+     * Initialize the number of seeds tried before the index is not built.
+     * Initialize the gram, the number of words in the corpus, the hash the keys start from (which is
+     *      the hash the filters start from if the seed is 0), the number of bits of a code (0 if the
+     *      model is not quantized), and the number of n-grams of each gram.
+     * Initialize the perfect hash, the codebook and the payloads of each gram, where index 0 is not used.
+     */
+    private static final int MAGIC = 0x4C4D4958;    // "LMIX"
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 36;
+
+    private static final int FINGERPRINT_SHIFT = 48;
+    private static final long VALUE_MASK = (1L << FINGERPRINT_SHIFT) - 1;
+
+    private static final int MAX_SEEDS = 8;
+
+    private final int gram;
+    private final long numberOfWords;
+    private final long initialHash;
+    private final int quantizationBits;
+    private final int[] sizes;
+
+    private final MinimalPerfectHash[] functions;
+    private final double[][] codebooks;
+    private final MappedSection[] payloads;
+
+    /**
+     * Maps an index file to memory.
+     *
+     * @param file the index file.
+     * @throws IOException if there is an error mapping the file, or it is not an index file.
+     */
+    public ModelIndex(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IOException(file + " is not a language model index file");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " has the unsupported index version " + version + ", build the model again");
+
+            gram = header.getInt();
+            numberOfWords = header.getLong();
+            initialHash = getInitialHash(header.getLong());
+            quantizationBits = header.getInt();
+            int numberOfSizes = header.getInt();
+
+            long position = HEADER_SIZE;
+            IntBuffer sizesBuffer = map(channel, position, numberOfSizes * 4L).asIntBuffer();
+            position += numberOfSizes * 4L;
+            sizes = new int[gram + 1];
+            for (int n = 1; n <= gram; n++) {
+                sizes[n] = sizesBuffer.get(n - 1);
+            }
+
+            functions = new MinimalPerfectHash[gram + 1];
+            codebooks = new double[gram + 1][];
+            payloads = new MappedSection[gram + 1];
+            for (int n = 1; n <= gram; n++) {
+                ByteBuffer functionHeader = map(channel, position, 20);
+                long functionSize = 20 + functionHeader.getInt(12) * 8L + functionHeader.getInt(16) * 4L;
+                functions[n] = MinimalPerfectHash.read(map(channel, position, functionSize));
+                position += functionSize;
+
+                if (quantizationBits != 0) {
+                    codebooks[n] = new double[1 << quantizationBits];
+                    map(channel, position, codebooks[n].length * 8L).asDoubleBuffer().get(codebooks[n]);
+                    position += codebooks[n].length * 8L;
+                }
+
+                payloads[n] = new MappedSection(channel, position, sizes[n] * 8L);
+                position += sizes[n] * 8L;
+            }
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * Builds the index file of a model, gram by gram, where the keys of each gram are extended from
+     * the keys of the previous gram, so a walk down the index never reads the model.
+     * Two n-grams of the same gram have the same key only by chance, about (number of n-grams)^2 / 2^65
+     * times per gram, and then the perfect hash can not be built, so the keys of each gram are sorted
+     * and checked first, and the index is built again with the next seed if two of them are the same.
+     * If no seed gives distinct keys, the index file is deleted and the model is queried through its trie.
+     *
+     * @param model the language model.
+     * @param file  the index file.
+     * @return true if the index was built, false if it was not.
+     * @throws IOException if there is an error writing the index file.
+     */
+    public static boolean build(MappedLanguageModel model, File file) throws IOException {
+        for (long seed = 0; seed < MAX_SEEDS; seed++) {
+            if (tryToBuild(model, file, seed)) return true;
+        }
+
+        Files.deleteIfExists(file.toPath());
+        System.out.println("The index of the model was not built, since its n-grams do not have distinct keys");
+        return false;
+    }
+
+    /**
+     * Writes the index file of a model with the keys that start from a seed.
+     *
+     * @return true if the index was written, false if two n-grams of a gram have the same key.
+     */
+    private static boolean tryToBuild(MappedLanguageModel model, File file, long seed) throws IOException {
+        int gram = model.getGram();
+        long initialHash = getInitialHash(seed);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(gram);
+            out.writeLong(model.getNumberOfWords());
+            out.writeLong(seed);
+            out.writeInt(model.getQuantizationBits());
+            out.writeInt(gram);
+            for (int n = 1; n <= gram; n++) {
+                out.writeInt(model.size(n));
+            }
+
+            long[] parentKeys = null;
+            for (int n = 1; n <= gram; n++) {
+                long[] keys = new long[model.size(n)];
+                if (n == 1) {
+                    for (int node = 0; node < keys.length; node++) {
+                        keys[node] = BlockedBloomFilter.extendHash(initialHash, model.getLastWord(1, node));
+                    }
+                } else {
+                    for (int parent = 0; parent < model.size(n - 1); parent++) {
+                        for (int node = model.getFirstChild(n - 1, parent); node < model.getFirstChild(n - 1, parent + 1); node++) {
+                            keys[node] = BlockedBloomFilter.extendHash(parentKeys[parent], model.getLastWord(n, node));
+                        }
+                    }
+                }
+                if (hasDuplicates(keys)) return false;
+
+                MinimalPerfectHash function = MinimalPerfectHash.build(keys);
+                long[] payload = new long[keys.length];
+                for (int node = 0; node < keys.length; node++) {
+                    long indexAndFingerprint = function.getIndexAndFingerprint(keys[node]);
+                    long value = model.isQuantized() ? model.getCode(n, node) : model.getCount(n, node);
+                    payload[(int) indexAndFingerprint] = ((indexAndFingerprint >>> 32) << FINGERPRINT_SHIFT) | value;
+                }
+
+                function.writeTo(out);
+                if (model.isQuantized()) {
+                    for (double probability: model.getCodebook(n)) {
+                        out.writeDouble(probability);
+                    }
+                }
+                for (long value: payload) {
+                    out.writeLong(value);
+                }
+                parentKeys = keys;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if two keys are the same, by sorting a copy of the keys.
+     */
+    private static boolean hasDuplicates(long[] keys) {
+        long[] sortedKeys = keys.clone();
+        Arrays.parallelSort(sortedKeys);
+        for (int i = 1; i < sortedKeys.length; i++) {
+            if (sortedKeys[i] == sortedKeys[i - 1]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the hash that the keys of an index with a seed start from, which is the hash that the
+     * filters of the model start from for the seed 0.
+     */
+    private static long getInitialHash(long seed) {
+        if (seed == 0) return BlockedBloomFilter.EMPTY_NGRAM_HASH;
+        return BlockedBloomFilter.extendHash(BlockedBloomFilter.EMPTY_NGRAM_HASH, (int) seed) ^ 0x632BE59BD9B4E019L;
+    }
+
+    /**
+     * Checks that the index was built from a model, by comparing the number of words of the corpus,
+     * the quantization and the number of n-grams of each gram.
+     *
+     * @param model the language model.
+     * @return true if the index matches the model.
+     */
+    public boolean matches(MappedLanguageModel model) {
+        if (model.getGram() != gram || model.getNumberOfWords() != numberOfWords) return false;
+        if (model.getQuantizationBits() != quantizationBits) return false;
+        for (int n = 1; n <= gram; n++) {
+            if (model.size(n) != sizes[n]) return false;
+        }
+        return true;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Walks down the index along a run of words, each n-gram is keyed by extending the hash of the previous one.
+     */
+    @Override
+    public int walk(int[] words, int from, int maxWords, int[] path) {
+        long hash = initialHash;
+        int n = 0;
+        while (n < Math.min(maxWords, gram) && words[from + n] != Vocabulary.UNKNOWN_WORD) {
+            hash = BlockedBloomFilter.extendHash(hash, words[from + n]);
+            int slot = findSlot(n + 1, hash);
+            if (slot == NOT_FOUND) break;
+
+            path[n++] = slot;
+        }
+        return n;
+    }
+
+    /**
+     * Checks if the index is keyed by the same hashes as the Bloom filters of the model, so it can be
+     * walked with the hashes of the filters.
+     */
+    public boolean isKeyedByFilterHashes() {
+        return initialHash == BlockedBloomFilter.EMPTY_NGRAM_HASH;
+    }
+
+    /**
+     * Walks down the index with the hashes of the n-grams of a run of words that were already found,
+     * such as by MappedLanguageModel.getPossibleLength, so the words are not hashed again.
+     * The index must be keyed by the hashes of the filters.
+     *
+     * @param hashes the hash of the n-gram of n words at hashes[n - 1].
+     * @param length the number of hashes.
+     * @param path   the array that the slot of the n-gram of each length is written to.
+     * @return the number of words of the longest n-gram found.
+     */
+    public int walk(long[] hashes, int length, int[] path) {
+        int n = 0;
+        while (n < Math.min(length, gram)) {
+            int slot = findSlot(n + 1, hashes[n]);
+            if (slot == NOT_FOUND) break;
+
+            path[n++] = slot;
+        }
+        return n;
+    }
+
+    @Override
+    public double getProbability(int n, int node, int parent) {
+        if (quantizationBits != 0) return codebooks[n][(int) getValue(n, node)];
+        if (n == 1) return getValue(1, node) / (double)numberOfWords;
+        return getValue(n, node) / (double)getValue(n - 1, parent);
+    }
+
+    /**
+     * Returns the count of an n-gram, or the code of its probability if the model is quantized.
+     */
+    private long getValue(int n, int slot) {return payloads[n].getLong(slot * 8L) & VALUE_MASK;}
+
+    /**
+     * Finds the slot of an n-gram from its hash.
+     *
+     * @return the slot of the n-gram, or NOT_FOUND if its fingerprint does not match.
+     */
+    private int findSlot(int n, long hash) {
+        if (sizes[n] == 0) return NOT_FOUND;
+
+        long indexAndFingerprint = functions[n].getIndexAndFingerprint(hash);
+        int slot = (int) indexAndFingerprint;
+        if (slot >= sizes[n]) return NOT_FOUND;
+
+        long fingerprint = payloads[n].getLong(slot * 8L) >>> FINGERPRINT_SHIFT;
+        return (fingerprint == indexAndFingerprint >>> 32) ? slot : NOT_FOUND;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (position + size > channel.size()) throw new IOException("The language model index file is truncated");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+}
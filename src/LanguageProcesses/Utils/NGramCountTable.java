@@ -0,0 +1,226 @@
+package LanguageProcesses.Utils;
+
+import java.util.Arrays;
+
+/**
+ * A table that counts n-grams of word IDs without creating an object per n-gram.
+ * Every n-gram is an entry with a dense ID, and it is keyed by the entry ID of its (n-1)-gram
+ * prefix (its context) and the ID of its last word packed into one long, so the key of any
+ * n-gram is exact and fits in 64 bits whatever the size of the vocabulary or the n.
+ * The contexts of the unigrams are the ROOT, and an entry is always added after its context,
+ * so the context of an entry always has a smaller ID.
+ *
+ * The keys are found through an open addressing hash table of entry IDs with linear probing,
+ * and the keys and counts of the entries are saved in parallel arrays indexed by their IDs.
+ */
+public class NGramCountTable {
+    /**
+     * Initialize the context of the unigrams, and the ID returned for the n-grams that are not in the table.
+     * Initialize the most entries the table can hold, since the hash table has twice as many slots
+     *      as entries and its length must fit in an int.
+     * Initialize the hash table, where every slot holds the ID of an entry plus one, or zero if the slot is empty.
+     * Initialize the key and the count of each entry, and the number of entries.
+     */
+    public static final int ROOT = -1;
+    public static final int NO_ENTRY = -1;
+    public static final int MAX_SIZE = 1 << 29;
+
+    private int[] slots;
+    private long[] keys;
+    private int[] counts;
+    private int size = 0;
+
+    public NGramCountTable() {
+        this(1024);
+    }
+
+    public NGramCountTable(int expectedSize) {
+        if (expectedSize > MAX_SIZE) throw new IllegalArgumentException("A table can not hold more than " + MAX_SIZE + " n-grams");
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 16) - 1) << 1;
+        slots = new int[capacity * 2];
+        keys = new long[capacity];
+        counts = new int[capacity];
+    }
+
+    //////////////////////////////
+
+    /**
+     * Adds one to the count of an n-gram, adding it to the table if it is not in it.
+     *
+     * @param context  the entry ID of the (n-1)-gram prefix, or ROOT for a unigram.
+     * @param lastWord the ID of the last word.
+     * @return the entry ID of the n-gram.
+     */
+    public int increment(int context, int lastWord) {
+        return add(context, lastWord, 1);
+    }
+
+    /**
+     * Adds a count to the count of an n-gram, adding it to the table if it is not in it.
+     *
+     * @param context  the entry ID of the (n-1)-gram prefix, or ROOT for a unigram.
+     * @param lastWord the ID of the last word.
+     * @param count    the count to be added.
+     * @return the entry ID of the n-gram.
+     * @throws IllegalStateException if the n-gram is new and the table already holds MAX_SIZE n-grams.
+     */
+    public int add(int context, int lastWord, int count) {
+        long key = packKey(context, lastWord);
+        int slot = findSlot(key);
+
+        int entry = slots[slot] - 1;
+        if (entry == NO_ENTRY) {
+            if (size == MAX_SIZE) throw new IllegalStateException("A table can not hold more than " + MAX_SIZE + " n-grams");
+            entry = size++;
+            if (entry == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+                counts = Arrays.copyOf(counts, counts.length * 2);
+            }
+            keys[entry] = key;
+            slots[slot] = entry + 1;
+            if (size * 2 > slots.length) resize();
+        }
+
+        counts[entry] += count;
+        return entry;
+    }
+
+    /**
+     * Adds the counts of all the entries of another table to this one.
+     * The entries are added in the order of their IDs, so the context of each entry is
+     * already added when the entry is added.
+     *
+     * @param other   the other table.
+     * @param wordIds the ID in this table of each word ID of the other table, or null if the
+     *                tables use the same word IDs.
+     */
+    public void addAll(NGramCountTable other, int[] wordIds) {
+        int[] entries = new int[other.size];
+        for (int entry = 0; entry < other.size; entry++) {
+            int context = other.getContext(entry);
+            int lastWord = other.getLastWord(entry);
+            entries[entry] = add((context == ROOT) ? ROOT : entries[context],
+                    (wordIds == null) ? lastWord : wordIds[lastWord], other.counts[entry]);
+        }
+    }
+
+    /**
+     * Finds the entry of an n-gram.
+     *
+     * @param context  the entry ID of the (n-1)-gram prefix, or ROOT for a unigram.
+     * @param lastWord the ID of the last word.
+     * @return the entry ID of the n-gram, or NO_ENTRY if it is not in the table.
+     */
+    public int find(int context, int lastWord) {
+        return slots[findSlot(packKey(context, lastWord))] - 1;
+    }
+
+    public int size() {return size;}
+    public int getCount(int entry) {return counts[entry];}
+    public int getContext(int entry) {return (int) (keys[entry] >>> 32) - 1;}
+    public int getLastWord(int entry) {return (int) keys[entry];}
+
+    /**
+     * Returns the n of an entry, by walking its contexts up to the ROOT.
+     *
+     * @param entry the entry ID.
+     * @return the number of words of the n-gram.
+     */
+    public int getGram(int entry) {
+        int gram = 0;
+        for (int e = entry; e != ROOT; e = getContext(e)) gram++;
+        return gram;
+    }
+
+    /**
+     * Writes the word IDs of an entry in order to the start of an array.
+     *
+     * @param entry the entry ID.
+     * @param ids   the array, it must be long enough for the n-gram.
+     * @return the number of words of the n-gram.
+     */
+    public int getWordIds(int entry, int[] ids) {
+        int gram = getGram(entry);
+        int e = entry;
+        for (int i = gram - 1; i >= 0; i--) {
+            ids[i] = getLastWord(e);
+            e = getContext(e);
+        }
+        return gram;
+    }
+
+    /**
+     * Returns the entry IDs sorted by the word IDs of their n-grams, where each n-gram comes right
+     * before the n-grams that extend it, and the n-grams with the same context are sorted by their
+     * last word. This is the depth first order of the table seen as a trie of contexts.
+     *
+     * @return the sorted entry IDs.
+     */
+    public int[] getSortedEntries() {
+        long[] sortedKeys = Arrays.copyOf(keys, size);
+        Arrays.sort(sortedKeys);    // groups the entries by their context, sorted by their last word
+
+        int[] sortedEntries = new int[size];
+        addSortedEntries(sortedKeys, ROOT, sortedEntries, 0);
+        return sortedEntries;
+    }
+
+    /**
+     * Adds the entries of a context and of all its extensions in depth first order.
+     *
+     * @return the number of entries in the sorted array after adding them.
+     */
+    private int addSortedEntries(long[] sortedKeys, int context, int[] sortedEntries, int numberOfEntries) {
+        long contextKey = packKey(context, 0) >>> 32;
+
+        int i = Arrays.binarySearch(sortedKeys, packKey(context, 0));
+        if (i < 0) i = -i - 1;
+        for (; i < sortedKeys.length && (sortedKeys[i] >>> 32) == contextKey; i++) {
+            int entry = find(context, (int) sortedKeys[i]);
+            sortedEntries[numberOfEntries++] = entry;
+            numberOfEntries = addSortedEntries(sortedKeys, entry, sortedEntries, numberOfEntries);
+        }
+
+        return numberOfEntries;
+    }
+
+    //////////////////////////////
+
+    private static long packKey(int context, int lastWord) {
+        return ((long) (context + 1) << 32) | (lastWord & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Finds the slot of a key using linear probing.
+     *
+     * @return the slot that holds the key, or the empty slot where it should be added.
+     */
+    private int findSlot(long key) {
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+
+        while (slots[slot] != 0 && keys[slots[slot] - 1] != key) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void resize() {
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hash(keys[entry]) & mask;
+            while (newSlots[slot] != 0) slot = (slot + 1) & mask;
+            newSlots[slot] = entry + 1;
+        }
+
+        slots = newSlots;
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
@@ -0,0 +1,40 @@
+package LanguageProcesses.Utils;
+
+/**
+ * A read only source of n-gram probabilities that is queried by walking along the word IDs of a
+ * sentence, where every n-gram is a node found from the node of its n-1 gram prefix.
+ * The implementations are safe to share between concurrent checks.
+ */
+public interface NGramLookup {
+    /**
+     * Initialize the node returned for the n-grams that are not found, and the parent of the unigrams.
+     */
+    int NOT_FOUND = -1;
+    int ROOT = -1;
+
+    /**
+     * Walks along a run of words, from the unigram of the first word to the longest n-gram of the
+     * run that is found, so the n-grams that start at the same word are found one after the other,
+     * each one from the previous n-gram.
+     *
+     * @param words    the word IDs of a sentence.
+     * @param from     the index of the first word of the run.
+     * @param maxWords the most number of words to walk, it is limited by the gram.
+     * @param path     the array that the node of the n-gram of each length is written to, where the
+     *                 node of the n-gram of n words is at path[n - 1].
+     * @return the number of words of the longest n-gram found, or 0 if the first word is not found.
+     */
+    int walk(int[] words, int from, int maxWords, int[] path);
+
+    /**
+     * Calculates the probability of an n-gram whose parent is already known.
+     * For unigrams, the probability is the count of the n-gram divided by the number of words in the corpus.
+     * For n-grams, the probability is the count of the n-gram divided by the count of its n-1 gram prefix.
+     *
+     * @param n      the number of words of the n-gram.
+     * @param node   the node of the n-gram, from the path of a walk.
+     * @param parent the node of its n-1 gram prefix, or ROOT for a unigram.
+     * @return the probability of the n-gram.
+     */
+    double getProbability(int n, int node, int parent);
+}
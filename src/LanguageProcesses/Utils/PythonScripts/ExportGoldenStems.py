@@ -0,0 +1,63 @@
+# https://www.nltk.org/howto/stem.html
+import nltk
+from nltk.stem.arlstem import ARLSTem
+
+
+def main():
+	exportGoldenStems(readGoldenWords("../../../Data/GoldenStems.tsv"), "../../../Data/GoldenStems.tsv")
+
+# Function that reads the words of a golden file, skipping the header lines that have no tab,
+# so the stems of the committed vocabulary can be exported again
+# Inputs:
+#   inputGoldenPath - path to the input golden file
+# Outputs:
+#   The words of the golden file
+def readGoldenWords(inputGoldenPath):
+	words = set()
+
+	inputGoldenFile = open(inputGoldenPath, "r", encoding="utf-8")
+	for line in inputGoldenFile:
+		if "\t" in line:
+			words.add(line.split("\t")[0])
+	inputGoldenFile.close()
+
+	return words
+
+# Function that reads every distinct word of a corpus, used to export the golden file
+# of a corpus instead of the committed vocabulary
+# Inputs:
+#   inputCorpusPath - path to the input corpus file
+# Outputs:
+#   The words of the corpus
+def readCorpusWords(inputCorpusPath):
+	words = set()
+
+	inputCorpusFile = open(inputCorpusPath, "r", encoding="utf-8")
+	for line in inputCorpusFile:
+		words.update(word for word in line.rstrip("\r\n").split(" ") if word)
+	inputCorpusFile.close()
+
+	return words
+
+# Function that writes every word with its ARLSTem stem, used as the golden file that
+# the Java ArlstemStemmer is checked against
+# Inputs:
+#   words - the words to be stemmed
+#   outputGoldenPath - path to the output golden file
+# Outputs:
+#   None
+# Side-effects:
+#   Creates a golden file at the output path, that starts with a header line naming the NLTK version,
+#   followed by a line for each word with its stem separated by a tab
+def exportGoldenStems(words, outputGoldenPath):
+	stemmer = ARLSTem()
+
+	outputGoldenFile = open(outputGoldenPath, "w", encoding="utf-8")
+	outputGoldenFile.write("# Stems exported from nltk.stem.arlstem.ARLSTem by ExportGoldenStems.py, NLTK " + nltk.__version__ + "\n")
+	for word in sorted(words):
+		outputGoldenFile.write(word + "\t" + stemmer.stem(word) + "\n")
+	outputGoldenFile.close()
+
+
+if __name__ == "__main__":
+	main()
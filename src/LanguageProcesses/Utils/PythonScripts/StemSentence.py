@@ -8,8 +8,31 @@ stemmer = ARLSTem()
 sys.stdin.reconfigure(encoding='utf-8')
 sys.stdout.reconfigure(encoding='utf-8')
 
-sentence = sys.argv[1]
 
-sentence = sentence.split(" ")
-stemmedLine = [stemmer.stem(word) for word in sentence]
-print(" ".join(stemmedLine))
+# Function that stems every word of a sentence, where the words are separated by single spaces
+# Inputs:
+#   sentence - the sentence to be stemmed
+# Outputs:
+#   the stems joined by single spaces
+def stemSentence(sentence):
+	words = sentence.split(" ")
+	stemmedLine = [stemmer.stem(word) for word in words]
+	return " ".join(stemmedLine)
+
+# Function that keeps the worker running for the PythonStemmerPool, reading one sentence per
+# line from stdin and writing its stemmed sentence as one line to stdout in the same order,
+# until stdin is closed
+# Inputs:
+#   None
+# Outputs:
+#   None
+def serve():
+	for line in iter(sys.stdin.readline, ""):
+		sys.stdout.write(stemSentence(line.rstrip("\n")) + "\n")
+		sys.stdout.flush()
+
+
+if len(sys.argv) > 1 and sys.argv[1] == "--serve":
+	serve()
+else:
+	print(stemSentence(sys.argv[1]))
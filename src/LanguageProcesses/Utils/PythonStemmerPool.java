@@ -0,0 +1,234 @@
+package LanguageProcesses.Utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stemmer service backed by a pool of long lived StemSentence.py workers, so the Python
+ * interpreter and NLTK are loaded once per worker instead of once per sentence.
+ * Each worker reads one sentence per line from its stdin and writes the stemmed sentence as one
+ * line to its stdout in the same order, both in UTF-8. Many requests can be written to a worker
+ * before the first result is read, and a worker that crashes or times out is started again
+ * for the next request.
+ */
+public class PythonStemmerPool implements StemmerService {
+    /**
+     * Initialize the path of the python script that is started in serve mode by every worker.
+     * Initialize the default time in milliseconds that a request waits for its results.
+     * Initialize the path of the script, the time a request waits for its results, and the workers,
+     *      where a worker is replaced by a new one when it is not alive anymore.
+     * Initialize the counter used to pick the workers in round robin order.
+     */
+    private static final String SCRIPT_FILE = "src/LanguageProcesses/Utils/PythonScripts/StemSentence.py";
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    private final String scriptFileName;
+    private final long timeoutMillis;
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public PythonStemmerPool(int numberOfWorkers) throws IOException {
+        this(SCRIPT_FILE, numberOfWorkers, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Starts the workers of the pool.
+     *
+     * @param scriptFileName  the path of the python script.
+     * @param numberOfWorkers the number of python processes.
+     * @param timeoutMillis   the time in milliseconds that a request waits for its results.
+     * @throws IOException if a worker can not be started.
+     */
+    public PythonStemmerPool(String scriptFileName, int numberOfWorkers, long timeoutMillis) throws IOException {
+        if (numberOfWorkers < 1) throw new IllegalArgumentException("The pool needs at least one worker");
+
+        this.scriptFileName = scriptFileName;
+        this.timeoutMillis = timeoutMillis;
+        this.workers = new Worker[numberOfWorkers];
+        for (int i = 0; i < numberOfWorkers; i++) {
+            workers[i] = new Worker();
+        }
+    }
+
+    //////////////////////////////
+
+    @Override
+    public String stemSentence(String sentence) throws IOException {
+        return stemSentences(List.of(sentence)).get(0);
+    }
+
+    /**
+     * Sends the whole batch to one worker and waits for its results.
+     * If the worker crashes before answering, or is stopped because another request on it timed out,
+     * the batch is sent once more to a new worker.
+     * The line breaks inside a sentence are replaced by spaces, since they end a request.
+     *
+     * @param sentences the sentences to be stemmed.
+     * @return the stemmed sentences, in the same order.
+     * @throws IOException if the worker crashes twice, or the results are not ready in time.
+     */
+    @Override
+    public List<String> stemSentences(List<String> sentences) throws IOException {
+        if (sentences.isEmpty()) return new ArrayList<>();
+
+        try {
+            return getWorker().stem(sentences);
+        } catch (WorkerExitedException e) {
+            return getWorker().stem(sentences);
+        }
+    }
+
+    /**
+     * Stops all the workers, the requests that are still waiting fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (workers) {
+            for (Worker worker: workers) {
+                worker.kill(new WorkerExitedException("The stemmer pool is closed"));
+            }
+        }
+    }
+
+    /**
+     * Picks the next worker in round robin order, starting a new one in its place if it is not alive.
+     *
+     * @return a running worker.
+     * @throws IOException if the pool is closed, or a new worker can not be started.
+     */
+    private Worker getWorker() throws IOException {
+        if (closed) throw new IOException("The stemmer pool is closed");
+
+        int index = Math.floorMod(nextWorker.getAndIncrement(), workers.length);
+        synchronized (workers) {
+            if (!workers[index].isAlive()) workers[index] = new Worker();
+            return workers[index];
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * One python process of the pool.
+     * The results are read by a daemon thread that completes the waiting requests in the order
+     * they were written, so writing never waits for reading and the pipes can not deadlock.
+     */
+    private class Worker {
+        private final Process process;
+        private final BufferedWriter writer;
+        private final ConcurrentLinkedQueue<CompletableFuture<String>> pending = new ConcurrentLinkedQueue<>();
+        private volatile boolean alive = true;
+
+        private Worker() throws IOException {
+            ProcessBuilder builder = new ProcessBuilder("python", scriptFileName, "--serve");
+            builder.environment().put("PYTHONIOENCODING", "utf-8");
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = builder.start();
+            writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+
+            Thread reader = new Thread(this::readResults, "stemmer-worker-" + process.pid());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private boolean isAlive() {
+            return alive && process.isAlive();
+        }
+
+        /**
+         * Writes a batch of sentences and waits for their results.
+         */
+        private List<String> stem(List<String> sentences) throws IOException {
+            List<CompletableFuture<String>> futures = new ArrayList<>(sentences.size());
+
+            synchronized (writer) {
+                for (String sentence: sentences) {
+                    CompletableFuture<String> future = new CompletableFuture<>();
+                    pending.add(future);
+                    futures.add(future);
+                }
+                try {
+                    for (String sentence: sentences) {
+                        writer.write(sentence.replace('\r', ' ').replace('\n', ' '));
+                        writer.newLine();
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    kill(new WorkerExitedException("The stemmer worker stopped reading: " + e.getMessage()));
+                }
+            }
+            if (!alive) kill(new WorkerExitedException("The stemmer worker exited"));    // fail the futures added after it died
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            List<String> stemmedSentences = new ArrayList<>(sentences.size());
+            for (CompletableFuture<String> future: futures) {
+                stemmedSentences.add(await(future, deadline));
+            }
+            return stemmedSentences;
+        }
+
+        private String await(CompletableFuture<String> future, long deadline) throws IOException {
+            try {
+                return future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                kill(new WorkerExitedException("The stemmer worker was stopped after a request timed out"));    // the other requests are sent again
+                throw new IOException("Stemming timed out after " + timeoutMillis + " ms");
+            } catch (ExecutionException e) {
+                throw (IOException) e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the stemmer");
+            }
+        }
+
+        /**
+         * Completes the waiting requests with the lines written by the worker until it exits.
+         */
+        private void readResults() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    CompletableFuture<String> future = pending.poll();
+                    if (future != null) future.complete(line);
+                }
+            } catch (IOException ignored) {
+                // the worker is stopped below
+            }
+            kill(new WorkerExitedException("The stemmer worker exited"));
+        }
+
+        /**
+         * Stops the worker and fails all the requests that are waiting for it.
+         */
+        private void kill(IOException cause) {
+            alive = false;
+            process.destroyForcibly();
+
+            CompletableFuture<String> future;
+            while ((future = pending.poll()) != null) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a worker exits before answering, so the request can be sent to a new worker.
+     */
+    private static class WorkerExitedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private WorkerExitedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package LanguageProcesses.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A language model made of a base model and the delta segments that were counted from the text added
+ * after it, each one an immutable model file of its own, so adding text costs as much as counting it.
+ * A token is looked up in every segment and its count is the sum of its counts in the segments, so its
+ * probability is calculated from the summed counts of the token and of its prefix, just as if the
+ * text of all the segments was counted into one model. The segments can be merged into one model file.
+ *
+ * Every delta segment saves the vocabulary of the segment before it followed by its new words, so a word
+ * has the same ID in every segment, and the vocabulary of the last segment is the vocabulary of the model.
+ * The counts are needed to sum them, so none of the segments can be quantized.
+ */
+public class SegmentedLanguageModel implements NGramLookup {
+    /**
+     * Initialize the segments, the base model first and then the delta segments in the order they were added.
+     * Initialize the gram, and the number of words counted in all the segments.
+     */
+    private final MappedLanguageModel[] segments;
+    private final int gram;
+    private final long numberOfWords;
+
+    /**
+     * Creates a model from its segments.
+     *
+     * @param segments the base model followed by its delta segments.
+     * @throws IOException if a segment is quantized, or has a different gram.
+     */
+    public SegmentedLanguageModel(List<MappedLanguageModel> segments) throws IOException {
+        this.segments = segments.toArray(new MappedLanguageModel[0]);
+        this.gram = this.segments[0].getGram();
+
+        long numberOfWords = 0;
+        for (MappedLanguageModel segment: this.segments) {
+            if (segment.isQuantized())
+                throw new IOException("The segments of a model need their counts, build the model again without quantizing it");
+            if (segment.getGram() != gram)
+                throw new IOException("The segments of a model must have the same gram");
+            numberOfWords += segment.getNumberOfWords();
+        }
+        this.numberOfWords = numberOfWords;
+    }
+
+    public Vocabulary getVocabulary() {return segments[segments.length - 1].getVocabulary();}
+    public int getGram() {return gram;}
+    public long getNumberOfWords() {return numberOfWords;}
+    public int getNumberOfSegments() {return segments.length;}
+
+    //////////////////////////////
+
+    /**
+     * Walks every segment along a run of words, after its Bloom filters, and writes the count of each
+     * n-gram found summed over the segments to the path, so the node of an n-gram in this model is its
+     * total count. Every n-gram whose prefix is counted in a segment has that prefix counted there too,
+     * so the walk finds the same n-grams as a walk of one model of all the text.
+     */
+    @Override
+    public int walk(int[] words, int from, int maxWords, int[] path) {
+        int[] segmentPath = new int[gram];
+        int numberOfWordsFound = 0;
+
+        for (MappedLanguageModel segment: segments) {
+            int length = segment.getPossibleLength(words, from, maxWords);
+            if (length > 0) length = segment.walk(words, from, length, segmentPath);
+
+            for (int n = 1; n <= length; n++) {
+                int count = segment.getCount(n, segmentPath[n - 1]);
+                path[n - 1] = (n > numberOfWordsFound) ? count : Math.addExact(path[n - 1], count);
+            }
+            numberOfWordsFound = Math.max(numberOfWordsFound, length);
+        }
+        return numberOfWordsFound;
+    }
+
+    /**
+     * Calculates the probability of an n-gram from its total count and the total count of its prefix,
+     * as they are written to the path by walk.
+     */
+    @Override
+    public double getProbability(int n, int node, int parent) {
+        if (n == 1) return node / (double)numberOfWords;
+        return node / (double)parent;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Merges the segments into one model file with the summed count of every token.
+     * The tries of the segments are walked together in depth first order, where the siblings of every
+     * segment are sorted by the IDs of their last words, so the tokens are merged the way a sorted
+     * merge joins sorted lists and the merged file is written in one pass.
+     * The merged model records the number of the last segment, so the segments it holds are not counted again.
+     *
+     * @param file the file of the merged model.
+     * @throws IOException if there is an error writing the file.
+     */
+    public void merge(File file) throws IOException {
+        int[] from = new int[segments.length];
+        int[] to = new int[segments.length];
+        for (int s = 0; s < segments.length; s++) {
+            to[s] = segments[s].size(1);
+        }
+
+        try (MappedLanguageModel.Writer writer = new MappedLanguageModel.Writer(file, gram)) {
+            mergeSiblings(writer, 1, from, to, new int[gram]);
+            writer.finish(getVocabulary(), numberOfWords, segments[segments.length - 1].getDeltaNumber());
+        }
+    }
+
+    /**
+     * Merges a range of siblings of every segment, and the subtrees of the merged siblings.
+     *
+     * @param from the first sibling of each segment.
+     * @param to   the index after the last sibling of each segment, equal to from if it has none.
+     */
+    private void mergeSiblings(MappedLanguageModel.Writer writer, int n, int[] from, int[] to, int[] words) throws IOException {
+        int[] next = from.clone();
+        int[] childrenFrom = new int[segments.length];
+        int[] childrenTo = new int[segments.length];
+
+        while (true) {
+            int word = Integer.MAX_VALUE;
+            for (int s = 0; s < segments.length; s++) {
+                if (next[s] < to[s]) word = Math.min(word, segments[s].getLastWord(n, next[s]));
+            }
+            if (word == Integer.MAX_VALUE) return;
+
+            long count = 0;
+            for (int s = 0; s < segments.length; s++) {
+                childrenFrom[s] = childrenTo[s] = 0;
+                if (next[s] < to[s] && segments[s].getLastWord(n, next[s]) == word) {
+                    count += segments[s].getCount(n, next[s]);
+                    if (n < gram) {
+                        childrenFrom[s] = segments[s].getFirstChild(n, next[s]);
+                        childrenTo[s] = segments[s].getFirstChild(n, next[s] + 1);
+                    }
+                    next[s]++;
+                }
+            }
+
+            words[n - 1] = word;
+            writer.add(words, n, count);
+            if (n < gram) mergeSiblings(writer, n + 1, childrenFrom, childrenTo, words);
+        }
+    }
+}
@@ -0,0 +1,678 @@
+package LanguageProcesses.Utils;
+
+import LanguageProcesses.Object.NearDuplicate;
+import LanguageProcesses.Object.SourceMatch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * An inverted index of the lines of the stemmed corpus, which finds the lines that a sentence may be
+ * copied from. Every line is turned into fingerprints by winnowing: each run of WORDS_PER_FINGERPRINT
+ * word IDs is hashed, and the smallest hash of every window of WINDOW_SIZE consecutive hashes is kept,
+ * so two texts that share a run of WORDS_PER_FINGERPRINT + WINDOW_SIZE - 1 words always share a
+ * fingerprint, while only about 2 / (WINDOW_SIZE + 1) of the hashes are saved.
+ * Each fingerprint maps to the posting list of the lines that have it, and a sentence is matched to
+ * the lines that share the most fingerprints with it. The fingerprints are found with a minimal perfect
+ * hash, and the fingerprints of more than MAX_POSTINGS lines are skipped, since they are common phrases
+ * that say nothing about the source, so a query reads a bounded number of postings however big the corpus is.
+ *
+ * The index also finds the lines that a whole text is a near duplicate of. Every line has a MinHash
+ * signature of SIGNATURE_SIZE hashes of its runs of WORDS_PER_FINGERPRINT words, where two signatures
+ * agree on a hash with a probability equal to the Jaccard similarity of the runs of the two texts.
+ * The signature is split into NUMBER_OF_BANDS bands of ROWS_PER_BAND hashes, and each band is hashed
+ * to a key with a posting list of its own, so a text is only compared to the lines that share a whole
+ * band with it, which a line with a similarity of s does with a probability of 1 - (1 - s^ROWS_PER_BAND)^NUMBER_OF_BANDS
+ * (about 0.99 for a similarity of 0.6, and 0.05 for 0.2).
+ *
+ * The file consists of a header (the magic number, the version, the size of the corpus file, the number
+ * of lines, the number of fingerprints and the number of band keys), then the posting lists table of
+ * the fingerprints, then the offset of every line in the corpus file, then the posting lists table of
+ * the band keys, then the signature of every line, then the posting lists. A posting lists table is a
+ * perfect hash followed by the key, the number of lines and the position of the posting list of each slot.
+ * A posting list holds the numbers of its lines in increasing order, each one as the gap from the
+ * previous one in a variable number of bytes (7 bits per byte).
+ * The sections of the file are mapped as MappedSection windows, so the index can be
+ * bigger than the 2GB that one buffer can map.
+ *
+ * When the stemmed corpus was written by Corpus --stem, its offsets file holds the offset of the
+ * original line of the messy corpus of every stemmed line, and the snippets are read from the messy
+ * corpus instead, so a match is shown as the text it was copied from rather than as its stems.
+ */
+public class SourceIndex implements Closeable {
+    /**
+     * Initialize the magic number and the version at the start of the index file.
+     * Initialize the number of words hashed into a fingerprint, the number of hashes in a window,
+     *      the most lines of a fingerprint that is looked up, and the most bytes of a snippet.
+     * Initialize the number of hashes of a signature, the number of bands it is split into,
+     *      and the number of hashes of a band.
+     * Initialize the number of entries of the fingerprints and the band keys counted in memory at once
+     *      when no budget is given.
+     * Initialize the channel of the corpus file that the snippets are read from, and the offset of the
+     *      original line of each line in it, or null if the snippets are read from the stemmed corpus.
+     * Initialize the number of lines, the posting lists of the fingerprints, the offset of each line,
+     *      the posting lists of the band keys, the signature of each line, and the posting lists.
+     */
+    private static final int MAGIC = 0x53524358;    // "SRCX"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 28;
+
+    private static final int WORDS_PER_FINGERPRINT = 3;
+    private static final int WINDOW_SIZE = 4;
+    private static final int MAX_POSTINGS = 1000;
+    private static final int MAX_SNIPPET_SIZE = 4096;
+
+    private static final int SIGNATURE_SIZE = 128;
+    private static final int NUMBER_OF_BANDS = 32;
+    private static final int ROWS_PER_BAND = SIGNATURE_SIZE / NUMBER_OF_BANDS;
+
+    private static final int DEFAULT_ENTRIES_IN_MEMORY = 1 << 22;
+
+    private final FileChannel corpus;
+    private final MappedSection originalOffsets;
+    private final int numberOfLines;
+    private final PostingLists fingerprints;
+    private final MappedSection lineOffsets;
+    private final PostingLists bands;
+    private final MappedSection signatures;
+    private final MappedSection postings;
+
+    /**
+     * Maps an index file to memory, and opens the corpus file it was built from.
+     *
+     * @param file       the index file.
+     * @param corpusFile the stemmed corpus file.
+     * @throws IOException if there is an error mapping the files, the file is not an index file,
+     *                     or the corpus changed since the index was built.
+     */
+    public SourceIndex(File file, File corpusFile) throws IOException {
+        this(file, corpusFile, null, null);
+    }
+
+    /**
+     * Maps an index file to memory, and opens the messy corpus that the stemmed corpus was made from,
+     * if its offsets file belongs to the stemmed corpus and the messy corpus as they are now,
+     * or the stemmed corpus otherwise.
+     *
+     * @param file                the index file.
+     * @param corpusFile          the stemmed corpus file.
+     * @param originalOffsetsFile the offsets file of the stemmed corpus written by Corpus --stem, or null.
+     * @param originalCorpusFile  the messy corpus file, or null.
+     * @throws IOException if there is an error mapping the files, the file is not an index file,
+     *                     or the corpus changed since the index was built.
+     */
+    public SourceIndex(File file, File corpusFile, File originalOffsetsFile, File originalCorpusFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IOException(file + " is not a source index file");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " has the unsupported version " + version + ", build the model again");
+
+            long corpusSize = header.getLong();
+            if (corpusSize != corpusFile.length())
+                throw new IOException(corpusFile + " changed since " + file + " was built, build the model again");
+            numberOfLines = header.getInt();
+            int numberOfFingerprints = header.getInt();
+            int numberOfBandKeys = header.getInt();
+            if (numberOfLines < 0 || numberOfFingerprints < 0 || numberOfBandKeys < 0)
+                throw new IOException(file + " is corrupt, build the model again");
+
+            long position = HEADER_SIZE;
+            fingerprints = PostingLists.read(channel, position, numberOfFingerprints);
+            position += fingerprints.getSizeInBytes();
+            lineOffsets = new MappedSection(channel, position, numberOfLines * 8L);
+            position += numberOfLines * 8L;
+            bands = PostingLists.read(channel, position, numberOfBandKeys);
+            position += bands.getSizeInBytes();
+            signatures = new MappedSection(channel, position, numberOfLines * (long) SIGNATURE_SIZE * 4);
+            position += numberOfLines * (long) SIGNATURE_SIZE * 4;
+            postings = new MappedSection(channel, position, channel.size() - position);
+        }
+
+        originalOffsets = readOriginalOffsets(originalOffsetsFile, corpusFile, originalCorpusFile, numberOfLines);
+        corpus = FileChannel.open(((originalOffsets != null) ? originalCorpusFile : corpusFile).toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Maps the offsets file of the stemmed corpus, which holds the offset of the original line of
+     * every stemmed line, then the size of the messy corpus and the size of the stemmed corpus.
+     *
+     * @return the offsets, or null if there is no offsets file, or it does not belong to the corpora as they are now.
+     */
+    private static MappedSection readOriginalOffsets(File offsetsFile, File corpusFile, File originalCorpusFile, int numberOfLines) throws IOException {
+        if (offsetsFile == null || originalCorpusFile == null || !offsetsFile.exists()) return null;
+        if (offsetsFile.length() != numberOfLines * 8L + 16) return null;
+
+        try (FileChannel channel = FileChannel.open(offsetsFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer sizes = ByteBuffer.allocate(16);
+            channel.read(sizes, numberOfLines * 8L);
+            if (sizes.getLong(0) != originalCorpusFile.length() || sizes.getLong(8) != corpusFile.length()) return null;
+            return new MappedSection(channel, 0, numberOfLines * 8L);
+        }
+    }
+
+    //////////////////////////////
+
+    /**
+     * Builds the index file of a stemmed corpus, counting DEFAULT_ENTRIES_IN_MEMORY entries in memory at once.
+     *
+     * @param corpusFile the stemmed corpus file.
+     * @param vocabulary the vocabulary of the language model of the corpus.
+     * @param file       the index file.
+     * @throws IOException if there is an error reading the corpus or writing the index file.
+     */
+    public static void build(File corpusFile, Vocabulary vocabulary, File file) throws IOException {
+        build(corpusFile, vocabulary, file, DEFAULT_ENTRIES_IN_MEMORY);
+    }
+
+    /**
+     * Builds the index file of a stemmed corpus.
+     * The fingerprints and the band keys of all the lines are paired with their line numbers as the
+     * 2-grams of two ExternalNGramCounter, which sort them in runs that are saved to files when the
+     * memory is full and merged at the end, so the lines of every fingerprint and of every band key
+     * come together and in order however big the corpus is. The line offsets, the signatures and the
+     * posting lists are written to temporary files, and copied to the index file once the tables of the keys are built.
+     *
+     * @param corpusFile         the stemmed corpus file.
+     * @param vocabulary         the vocabulary of the language model of the corpus.
+     * @param file               the index file.
+     * @param maxEntriesInMemory the number of entries counted in memory at once.
+     * @throws IOException if there is an error reading the corpus or writing the index file.
+     */
+    public static void build(File corpusFile, Vocabulary vocabulary, File file, int maxEntriesInMemory) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File lineOffsetsFile = File.createTempFile("source-index-lines-", ".bin", directory);
+        File signaturesFile = File.createTempFile("source-index-signatures-", ".bin", directory);
+        int numberOfLines = 0;
+
+        try (ExternalNGramCounter fingerprintEntries = new ExternalNGramCounter(directory, maxEntriesInMemory / 2);
+             ExternalNGramCounter bandEntries = new ExternalNGramCounter(directory, maxEntriesInMemory / 2);
+             PostingLists.Builder fingerprintLists = new PostingLists.Builder(directory);
+             PostingLists.Builder bandLists = new PostingLists.Builder(directory)) {
+            try (DataOutputStream lineOffsetsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lineOffsetsFile)));
+                 DataOutputStream signaturesOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(signaturesFile)))) {
+                MappedCorpusReader reader = new MappedCorpusReader(corpusFile);
+                MappedCorpusReader.Line line;
+                while ((line = reader.nextLine()) != null) {
+                    lineOffsetsOut.writeLong(line.getFileOffset());
+                    int[] words = vocabulary.tokenize(line.decodeToChars());
+
+                    for (int fingerprint: getFingerprints(words)) {
+                        addEntry(fingerprintEntries, fingerprint, numberOfLines);
+                    }
+
+                    int[] signature = getSignature(words);
+                    if (signature != null) {
+                        for (int band = 0; band < NUMBER_OF_BANDS; band++) {
+                            addEntry(bandEntries, getBandKey(signature, band), numberOfLines);
+                        }
+                    }
+                    for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                        signaturesOut.writeInt((signature != null) ? signature[i] : 0);
+                    }
+                    fingerprintEntries.spillIfFull();
+                    bandEntries.spillIfFull();
+                    numberOfLines++;
+                }
+                reader.close();
+            }
+
+            fingerprintEntries.merge(fingerprintLists::add);
+            fingerprintLists.finish();
+            bandEntries.merge(bandLists::add);
+            bandLists.finish();
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(corpusFile.length());
+            out.writeInt(numberOfLines);
+            out.writeInt(fingerprintLists.getNumberOfKeys());
+            out.writeInt(bandLists.getNumberOfKeys());
+            fingerprintLists.writeTable(out, 0);
+            out.flush();
+            Files.copy(lineOffsetsFile.toPath(), out);
+            bandLists.writeTable(out, fingerprintLists.getPostingsSize());
+            out.flush();
+            Files.copy(signaturesFile.toPath(), out);
+            fingerprintLists.writePostings(out);
+            bandLists.writePostings(out);
+            out.close();
+        } finally {
+            Files.deleteIfExists(lineOffsetsFile.toPath());
+            Files.deleteIfExists(signaturesFile.toPath());
+        }
+    }
+
+    /**
+     * Adds the entry of a key and a line number to the table of a counter, as a 2-gram that extends
+     * the 1-gram of the key.
+     */
+    private static void addEntry(ExternalNGramCounter counter, int key, int lineNumber) {
+        NGramCountTable table = counter.getTable();
+        table.increment(table.increment(NGramCountTable.ROOT, key), lineNumber);
+    }
+
+    //////////////////////////////
+
+    /**
+     * Finds the lines of the corpus that share the most fingerprints with a sentence.
+     *
+     * @param words             the word IDs of the stemmed sentence.
+     * @param numberOfSources   the most number of lines to return.
+     * @return the lines that share at least one fingerprint with the sentence, the ones that share
+     *         the most first, with the text of each line.
+     * @throws IOException if there is an error reading a line from the corpus file.
+     */
+    public ArrayList<SourceMatch> findSources(int[] words, int numberOfSources) throws IOException {
+        HashMap<Integer, Integer> sharedFingerprints = new HashMap<>();
+        for (int fingerprint: getFingerprints(words)) {
+            int slot = fingerprints.find(fingerprint);
+            if (slot < 0 || fingerprints.getSize(slot) > MAX_POSTINGS) continue;
+
+            for (int lineNumber: fingerprints.getLines(slot, postings, MAX_POSTINGS)) {
+                sharedFingerprints.merge(lineNumber, 1, Integer::sum);
+            }
+        }
+
+        ArrayList<int[]> lines = new ArrayList<>();
+        sharedFingerprints.forEach((lineNumber, count) -> lines.add(new int[] {lineNumber, count}));
+        lines.sort((first, second) -> (first[1] != second[1]) ? Integer.compare(second[1], first[1]) : Integer.compare(first[0], second[0]));
+
+        ArrayList<SourceMatch> sources = new ArrayList<>();
+        for (int i = 0; i < Math.min(numberOfSources, lines.size()); i++) {
+            int lineNumber = lines.get(i)[0];
+            sources.add(new SourceMatch(lineOffsets.getLong(lineNumber * 8L), lines.get(i)[1], readLine(lineNumber)));
+        }
+        return sources;
+    }
+
+    /**
+     * Finds the lines of the corpus that a whole text is a near duplicate of.
+     * Only the lines that share a band of the signature of the text are compared to it, by the
+     * fraction of the hashes of their signatures that agree with it, and at most MAX_POSTINGS lines
+     * are read from each band, so the cost of a query does not grow with the corpus.
+     *
+     * @param words           the word IDs of the stemmed text.
+     * @param minSimilarity   the lowest estimated similarity of a line to return, from 0 to 1.
+     * @param numberOfLines   the most number of lines to return.
+     * @return the lines whose estimated similarity to the text is at least minSimilarity,
+     *         the most similar first, with the text of each line.
+     * @throws IOException if there is an error reading a line from the corpus file.
+     */
+    public ArrayList<NearDuplicate> findNearDuplicates(int[] words, double minSimilarity, int numberOfLines) throws IOException {
+        ArrayList<NearDuplicate> duplicates = new ArrayList<>();
+        int[] signature = getSignature(words);
+        if (signature == null) return duplicates;
+
+        HashSet<Integer> candidates = new HashSet<>();
+        for (int band = 0; band < NUMBER_OF_BANDS; band++) {
+            int slot = bands.find(getBandKey(signature, band));
+            if (slot < 0) continue;
+            for (int lineNumber: bands.getLines(slot, postings, MAX_POSTINGS)) candidates.add(lineNumber);
+        }
+
+        ArrayList<double[]> lines = new ArrayList<>();
+        for (int lineNumber: candidates) {
+            int agreeing = 0;
+            for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                if (signatures.getInt((lineNumber * (long) SIGNATURE_SIZE + i) * 4) == signature[i]) agreeing++;
+            }
+            double similarity = agreeing / (double) SIGNATURE_SIZE;
+            if (similarity >= minSimilarity) lines.add(new double[] {lineNumber, similarity});
+        }
+        lines.sort((first, second) -> (first[1] != second[1]) ? Double.compare(second[1], first[1]) : Double.compare(first[0], second[0]));
+
+        for (int i = 0; i < Math.min(numberOfLines, lines.size()); i++) {
+            int lineNumber = (int) lines.get(i)[0];
+            duplicates.add(new NearDuplicate(lineOffsets.getLong(lineNumber * 8L), lines.get(i)[1], readLine(lineNumber)));
+        }
+        return duplicates;
+    }
+
+    @Override
+    public void close() throws IOException {
+        corpus.close();
+    }
+
+    //////////////////////////////
+
+    /**
+     * Winnows the hashes of the runs of WORDS_PER_FINGERPRINT words of a text into its fingerprints,
+     * the smallest hash of each window of WINDOW_SIZE hashes (the last one if there is a tie),
+     * where a hash that is the smallest of several windows is kept once.
+     * A text shorter than a window keeps the smallest of all its hashes.
+     *
+     * @param words the word IDs of the text.
+     * @return the distinct fingerprints of the text.
+     */
+    static int[] getFingerprints(int[] words) {
+        long[] runHashes = getRunHashes(words);
+        int numberOfHashes = runHashes.length;
+        if (numberOfHashes == 0) return new int[0];
+
+        int[] hashes = new int[numberOfHashes];
+        for (int i = 0; i < numberOfHashes; i++) {
+            hashes[i] = (int) (runHashes[i] >>> 32);
+        }
+
+        int[] fingerprints = new int[numberOfHashes];
+        int numberOfFingerprints = 0;
+        int lastPicked = -1;
+        int windowSize = Math.min(WINDOW_SIZE, numberOfHashes);
+        for (int start = 0; start + windowSize <= numberOfHashes; start++) {
+            int picked = start;
+            for (int i = start + 1; i < start + windowSize; i++) {
+                if (Integer.compareUnsigned(hashes[i], hashes[picked]) <= 0) picked = i;
+            }
+            if (picked != lastPicked) {
+                fingerprints[numberOfFingerprints++] = hashes[picked];
+                lastPicked = picked;
+            }
+        }
+
+        return Arrays.stream(fingerprints, 0, numberOfFingerprints).distinct().toArray();
+    }
+
+    /**
+     * Calculates the MinHash signature of a text, where hash i of the signature is the smallest
+     * value of the i-th hash function over the hashes of the runs of WORDS_PER_FINGERPRINT words.
+     *
+     * @param words the word IDs of the text.
+     * @return the signature, or null if the text is shorter than a run.
+     */
+    static int[] getSignature(int[] words) {
+        long[] runHashes = getRunHashes(words);
+        if (runHashes.length == 0) return null;
+
+        int[] signature = new int[SIGNATURE_SIZE];
+        Arrays.fill(signature, -1);
+        for (long runHash: runHashes) {
+            for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                int hash = (int) (mix(runHash + i * 0x9E3779B97F4A7C15L) >>> 32);
+                if (Integer.compareUnsigned(hash, signature[i]) < 0) signature[i] = hash;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Hashes the ROWS_PER_BAND hashes of a band of a signature, with the number of the band,
+     * so the same hashes in two different bands give two different keys.
+     */
+    private static int getBandKey(int[] signature, int band) {
+        long hash = BlockedBloomFilter.extendHash(BlockedBloomFilter.EMPTY_NGRAM_HASH, band);
+        for (int i = band * ROWS_PER_BAND; i < (band + 1) * ROWS_PER_BAND; i++) {
+            hash = BlockedBloomFilter.extendHash(hash, signature[i]);
+        }
+        return (int) (hash >>> 32);
+    }
+
+    /**
+     * Hashes every run of WORDS_PER_FINGERPRINT words of a text, the way the n-grams of the model are hashed.
+     */
+    private static long[] getRunHashes(int[] words) {
+        long[] hashes = new long[Math.max(0, words.length - WORDS_PER_FINGERPRINT + 1)];
+        for (int i = 0; i < hashes.length; i++) {
+            long hash = BlockedBloomFilter.EMPTY_NGRAM_HASH;
+            for (int j = i; j < i + WORDS_PER_FINGERPRINT; j++) {
+                hash = BlockedBloomFilter.extendHash(hash, words[j]);
+            }
+            hashes[i] = hash;
+        }
+        return hashes;
+    }
+
+    /**
+     * Reads up to MAX_SNIPPET_SIZE bytes of a line, from the messy corpus if its original line is known,
+     * or from the stemmed corpus. The read does not move the position of the channel, so the
+     * snippets can be read by several threads at the same time.
+     */
+    private String readLine(int lineNumber) throws IOException {
+        long offset = (originalOffsets != null) ? originalOffsets.getLong(lineNumber * 8L) : lineOffsets.getLong(lineNumber * 8L);
+        ByteBuffer bytes = ByteBuffer.allocate(MAX_SNIPPET_SIZE);
+        while (bytes.hasRemaining()) {
+            if (corpus.read(bytes, offset + bytes.position()) <= 0) break;
+        }
+
+        int length = 0;
+        while (length < bytes.position() && bytes.get(length) != '\n' && bytes.get(length) != '\r') length++;
+        return StandardCharsets.UTF_8.decode(bytes.flip().limit(length)).toString();
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+        x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return x ^ (x >>> 33);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (position + size > channel.size()) throw new IOException("The source index file is truncated");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    //////////////////////////////
+
+    /**
+     * The table of the posting lists of a set of keys of 32 bits, where the perfect hash of the keys
+     * gives every key a slot that holds the key, the number of its lines and the position of its posting list.
+     */
+    private static class PostingLists {
+        /**
+         * Initialize the perfect hash of the keys, the number of keys, and the key, the number of lines
+         *      and the position of the posting list of each slot.
+         */
+        private final MinimalPerfectHash function;
+        private final int numberOfKeys;
+        private final MappedSection keys;
+        private final MappedSection sizes;
+        private final MappedSection starts;
+
+        private PostingLists(MinimalPerfectHash function, int numberOfKeys, MappedSection keys, MappedSection sizes, MappedSection starts) {
+            this.function = function;
+            this.numberOfKeys = numberOfKeys;
+            this.keys = keys;
+            this.sizes = sizes;
+            this.starts = starts;
+        }
+
+        /**
+         * Maps a table that was written by Builder.writeTable.
+         */
+        static PostingLists read(FileChannel channel, long position, int numberOfKeys) throws IOException {
+            ByteBuffer functionHeader = map(channel, position, 20);
+            long functionSize = 20 + functionHeader.getInt(12) * 8L + functionHeader.getInt(16) * 4L;
+            MinimalPerfectHash function = MinimalPerfectHash.read(map(channel, position, functionSize));
+            position += functionSize;
+
+            MappedSection keys = new MappedSection(channel, position, numberOfKeys * 4L);
+            position += numberOfKeys * 4L;
+            MappedSection sizes = new MappedSection(channel, position, numberOfKeys * 4L);
+            position += numberOfKeys * 4L;
+            MappedSection starts = new MappedSection(channel, position, numberOfKeys * 8L);
+            return new PostingLists(function, numberOfKeys, keys, sizes, starts);
+        }
+
+        long getSizeInBytes() {
+            return function.getSizeInBytes() + numberOfKeys * 16L;
+        }
+
+        /**
+         * Finds the slot of a key.
+         *
+         * @return the slot of the key, or -1 if the key is not in the table.
+         */
+        int find(int key) {
+            int slot = function.getIndex(key & 0xFFFFFFFFL);
+            return (slot < numberOfKeys && keys.getInt(slot * 4L) == key) ? slot : -1;
+        }
+
+        int getSize(int slot) {
+            return sizes.getInt(slot * 4L);
+        }
+
+        /**
+         * Decodes the first lines of the posting list of a slot.
+         *
+         * @param slot          the slot of the key.
+         * @param postings      the posting lists of the index.
+         * @param maxLines      the most number of lines to decode.
+         * @return the numbers of the lines.
+         */
+        int[] getLines(int slot, MappedSection postings, int maxLines) {
+            int[] lines = new int[Math.min(maxLines, getSize(slot))];
+            long position = starts.getLong(slot * 8L);
+            int lineNumber = 0;
+            for (int i = 0; i < lines.length; i++) {
+                int gap = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = postings.get(position++);
+                    gap |= (b & 0x7F) << shift;
+                    if (b >= 0) break;
+                }
+                lineNumber += gap;
+                lines[i] = lineNumber;
+            }
+            return lines;
+        }
+
+        /**
+         * Builds the table of the merged entries of an ExternalNGramCounter, each one a 2-gram of a key
+         * and a line number, and writes it with its posting lists.
+         * The posting lists are written to a temporary file as the entries are added, so only the
+         * keys are kept in memory.
+         */
+        static class Builder implements Closeable {
+            /**
+             * Initialize the temporary file of the posting lists, and its stream.
+             * Initialize the distinct keys in the order they are added, with the number of lines and
+             *      the position of the posting list of each one, and their number.
+             * Initialize the number of bytes of the posting lists, and the last line added.
+             * Initialize the perfect hash of the keys, and the key, the number of lines
+             *      and the position of the posting list of each slot, once the table is finished.
+             */
+            private final File postingsFile;
+            private final DataOutputStream postingsOut;
+            private long[] distinctKeys = new long[1024];
+            private int[] keySizes = new int[1024];
+            private long[] keyStarts = new long[1024];
+            private int numberOfKeys = 0;
+            private long postingsSize = 0;
+            private int previousLine = 0;
+
+            private MinimalPerfectHash function;
+            private int[] keys;
+            private int[] sizes;
+            private long[] starts;
+
+            /**
+             * @param directory the directory where the temporary file of the posting lists is created.
+             * @throws IOException if the temporary file can not be created.
+             */
+            Builder(File directory) throws IOException {
+                postingsFile = File.createTempFile("source-index-postings-", ".bin", directory);
+                postingsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(postingsFile)));
+            }
+
+            /**
+             * Adds a merged entry, where the key and the line number are the word IDs of a 2-gram,
+             * and skips the 1-grams of the keys. The entries come sorted by their keys and then by their lines.
+             */
+            void add(int[] ids, int gram, long count) throws IOException {
+                if (gram != 2) return;
+
+                long key = ids[0] & 0xFFFFFFFFL;
+                if (numberOfKeys == 0 || distinctKeys[numberOfKeys - 1] != key) {
+                    if (numberOfKeys == distinctKeys.length) {
+                        distinctKeys = Arrays.copyOf(distinctKeys, numberOfKeys * 2);
+                        keySizes = Arrays.copyOf(keySizes, numberOfKeys * 2);
+                        keyStarts = Arrays.copyOf(keyStarts, numberOfKeys * 2);
+                    }
+                    distinctKeys[numberOfKeys] = key;
+                    keyStarts[numberOfKeys] = postingsSize;
+                    numberOfKeys++;
+                    previousLine = 0;
+                }
+                keySizes[numberOfKeys - 1]++;
+                postingsSize += writeVarInt(postingsOut, ids[1] - previousLine);
+                previousLine = ids[1];
+            }
+
+            /**
+             * Builds the perfect hash of the keys, and gives every key its slot.
+             */
+            void finish() throws IOException {
+                postingsOut.close();
+
+                function = MinimalPerfectHash.build(Arrays.copyOf(distinctKeys, numberOfKeys));
+                keys = new int[numberOfKeys];
+                sizes = new int[numberOfKeys];
+                starts = new long[numberOfKeys];
+                for (int k = 0; k < numberOfKeys; k++) {
+                    int slot = function.getIndex(distinctKeys[k]);
+                    keys[slot] = (int) distinctKeys[k];
+                    sizes[slot] = keySizes[k];
+                    starts[slot] = keyStarts[k];
+                }
+                distinctKeys = null;
+                keySizes = null;
+                keyStarts = null;
+            }
+
+            int getNumberOfKeys() {return numberOfKeys;}
+            long getPostingsSize() {return postingsSize;}
+
+            /**
+             * Writes the table, where the positions of the posting lists start at postingsStart.
+             */
+            void writeTable(DataOutputStream out, long postingsStart) throws IOException {
+                function.writeTo(out);
+                for (int key: keys) out.writeInt(key);
+                for (int size: sizes) out.writeInt(size);
+                for (long start: starts) out.writeLong(postingsStart + start);
+            }
+
+            void writePostings(DataOutputStream out) throws IOException {
+                out.flush();
+                Files.copy(postingsFile.toPath(), out);
+            }
+
+            /**
+             * Deletes the temporary file of the posting lists.
+             */
+            @Override
+            public void close() throws IOException {
+                postingsOut.close();
+                Files.deleteIfExists(postingsFile.toPath());
+            }
+
+            /**
+             * Writes a value in a variable number of bytes.
+             *
+             * @return the number of bytes written.
+             */
+            private static int writeVarInt(DataOutputStream out, int value) throws IOException {
+                int size = 1;
+                while ((value & ~0x7F) != 0) {
+                    out.writeByte((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                    size++;
+                }
+                out.writeByte(value);
+                return size;
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package LanguageProcesses.Utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A read only dictionary of words and their stems, precomputed from the words of the clean corpus
+ * and saved to a binary file that is memory mapped when it is opened, so it is loaded at startup
+ * without reading it and shared between threads without locks.
+ *
+ * The file consists of a header (the magic number, the version and the number of entries), the
+ * offsets of the entries sorted by their words, and the entries, where each entry is the length and
+ * the chars of the word followed by the length and the chars of its stem.
+ */
+public class StemDictionary {
+    /**
+     * Initialize the magic number and the version at the start of the dictionary file.
+     * Initialize the default path of the dictionary file and of the clean corpus it is built from.
+     * Initialize an empty dictionary that contains no word, used when there is no dictionary file.
+     * Initialize the mapped file, the number of entries, and the position of the first entry in it.
+     */
+    private static final int MAGIC = 0x53544D44;    // "STMD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    private static final File DICTIONARY_FILE = new File("Data/StemDictionary.bin");
+    private static final File CLEAN_CORPUS_FILE = new File("Data/Corpus/CleanCorpus.txt");
+
+    public static final StemDictionary EMPTY = new StemDictionary(ByteBuffer.allocate(HEADER_SIZE + 4).putInt(0, MAGIC).putInt(4, VERSION));
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int entriesStart;
+
+    private StemDictionary(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC) throw new IllegalArgumentException("Not a stem dictionary file");
+        if (buffer.getInt(4) != VERSION) throw new IllegalArgumentException("Unsupported stem dictionary version: " + buffer.getInt(4));
+
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        this.entriesStart = HEADER_SIZE + (size + 1) * 4;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Builds the dictionary file from the words of the clean corpus, stemming each distinct word once.
+     *
+     * @param args optional paths of the clean corpus and of the dictionary file.
+     * @throws IOException if there is an error reading the corpus or writing the dictionary.
+     */
+    public static void main(String[] args) throws IOException {
+        File corpusFile = (args.length > 0) ? new File(args[0]) : CLEAN_CORPUS_FILE;
+        File dictionaryFile = (args.length > 1) ? new File(args[1]) : DICTIONARY_FILE;
+
+        Vocabulary words = new Vocabulary();
+        MappedCorpusReader reader = new MappedCorpusReader(corpusFile);
+        MappedCorpusReader.Line line;
+        while ((line = reader.nextLine()) != null) {
+            words.tokenizeAndAdd(line.decodeToChars());
+        }
+        reader.close();
+
+        String[] sortedWords = new String[words.size()];
+        for (int id = 0; id < sortedWords.length; id++) {
+            sortedWords[id] = words.getWord(id);
+        }
+        saveToFile(sortedWords, new ArlstemStemmer(), dictionaryFile);
+        System.out.println(sortedWords.length + " words saved to " + dictionaryFile);
+    }
+
+    /**
+     * Stems the given words and saves them with their stems to a dictionary file.
+     *
+     * @param words   the distinct words of the dictionary, they are sorted in place.
+     * @param stemmer the stemmer used to stem the words.
+     * @param file    the dictionary file.
+     * @throws IOException if there is an error stemming the words or writing to the file.
+     */
+    public static void saveToFile(String[] words, StemmerService stemmer, File file) throws IOException {
+        Arrays.sort(words);
+        String[] stems = stemmer.stemSentences(Arrays.asList(words)).toArray(new String[0]);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(words.length);
+
+        int offset = 0;
+        for (int i = 0; i < words.length; i++) {
+            out.writeInt(offset);
+            offset += 4 + (words[i].length() + stems[i].length()) * 2;
+        }
+        out.writeInt(offset);
+
+        for (int i = 0; i < words.length; i++) {
+            out.writeChar(words[i].length());
+            out.writeChars(words[i]);
+            out.writeChar(stems[i].length());
+            out.writeChars(stems[i]);
+        }
+        out.close();
+    }
+
+    /**
+     * Maps a dictionary file to memory.
+     *
+     * @param file the dictionary file.
+     * @return the dictionary.
+     * @throws IOException if there is an error mapping the file, or it is not a dictionary file.
+     */
+    public static StemDictionary open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        channel.close();
+
+        try {
+            return new StemDictionary(buffer);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage());
+        }
+    }
+
+    public static File getDictionaryFile() {return DICTIONARY_FILE;}
+
+    //////////////////////////////
+
+    /**
+     * Finds the stem of a word using binary search over the sorted entries.
+     *
+     * @param word the word to look up.
+     * @return the stem of the word, or null if the word is not in the dictionary.
+     */
+    public String getStem(String word) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = entriesStart + buffer.getInt(HEADER_SIZE + middle * 4);
+            int comparison = compareWord(entry, word);
+
+            if (comparison < 0) low = middle + 1;
+            else if (comparison > 0) high = middle - 1;
+            else return readStem(entry);
+        }
+
+        return null;
+    }
+
+    public int size() {return size;}
+
+    /**
+     * Compares the word of an entry with a given word the same way String.compareTo does.
+     */
+    private int compareWord(int entry, String word) {
+        int length = buffer.getChar(entry);
+        int minLength = Math.min(length, word.length());
+
+        for (int i = 0; i < minLength; i++) {
+            char c = buffer.getChar(entry + 2 + i * 2);
+            if (c != word.charAt(i)) return c - word.charAt(i);
+        }
+
+        return length - word.length();
+    }
+
+    private String readStem(int entry) {
+        int stemPosition = entry + 2 + buffer.getChar(entry) * 2;
+        char[] stem = new char[buffer.getChar(stemPosition)];
+        for (int i = 0; i < stem.length; i++) {
+            stem[i] = buffer.getChar(stemPosition + 2 + i * 2);
+        }
+        return new String(stem);
+    }
+}
@@ -0,0 +1,46 @@
+package LanguageProcesses.Utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A service that stems Arabic sentences, where the words of a sentence are separated by single
+ * spaces and the stemmed sentence has one stem for each word in the same order.
+ * The implementations are safe to share between concurrent checks, and are closed to stop the
+ * processes or threads they started.
+ */
+public interface StemmerService extends Closeable {
+    /**
+     * Stems every word of a sentence.
+     *
+     * @param sentence the sentence to be stemmed.
+     * @return the stems joined by single spaces.
+     * @throws IOException if the stemmer fails or times out.
+     */
+    String stemSentence(String sentence) throws IOException;
+
+    /**
+     * Stems a batch of sentences at once.
+     *
+     * @param sentences the sentences to be stemmed.
+     * @return the stemmed sentences, in the same order.
+     * @throws IOException if the stemmer fails or times out.
+     */
+    default List<String> stemSentences(List<String> sentences) throws IOException {
+        List<String> stemmedSentences = new ArrayList<>(sentences.size());
+        for (String sentence: sentences) {
+            stemmedSentences.add(stemSentence(sentence));
+        }
+        return stemmedSentences;
+    }
+
+    /**
+     * Releases what the stemmer holds, a stemmer that holds nothing does nothing.
+     *
+     * @throws IOException if the stemmer fails to release it.
+     */
+    @Override
+    default void close() throws IOException {}
+}
@@ -0,0 +1,130 @@
+package LanguageProcesses.Utils;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.TreeMap;
+
+public class StopWordMatcher {
+    /**
+     * Initialize an empty matcher that matches no word, used before the stop words are read.
+     * Initialize the arrays of the trie, where the nodes are saved in breadth first order:
+     *      labels holds the char on the edge to each node,
+     *      firstChild holds the index of the first child of each node, so the children of node n
+     *      are the nodes from firstChild[n] to firstChild[n + 1] sorted by their labels,
+     *      isWordEnd tells if the path from the root to each node is a whole stop word.
+     * Initialize the number of stop words in the trie.
+     */
+    public static final StopWordMatcher EMPTY = new StopWordMatcher(new ArrayDeque<>());
+
+    private final char[] labels;
+    private final int[] firstChild;
+    private final boolean[] isWordEnd;
+    private final int size;
+
+    /**
+     * Builds the trie of the given stop words, the words are copied so the matcher
+     * never changes after it is built and can be shared between threads.
+     *
+     * @param words the stop words, duplicates are ignored.
+     */
+    public StopWordMatcher(Collection<String> words) {
+        TreeNode root = new TreeNode();
+        int numberOfNodes = 1;
+        int numberOfWords = 0;
+
+        for (String word: words) {
+            TreeNode node = root;
+            for (int i = 0; i < word.length(); i++) {
+                TreeNode child = node.children.get(word.charAt(i));
+                if (child == null) {
+                    child = new TreeNode();
+                    node.children.put(word.charAt(i), child);
+                    numberOfNodes++;
+                }
+                node = child;
+            }
+            if (!node.isWordEnd) numberOfWords++;
+            node.isWordEnd = true;
+        }
+
+        labels = new char[numberOfNodes];
+        firstChild = new int[numberOfNodes + 1];
+        isWordEnd = new boolean[numberOfNodes];
+        size = numberOfWords;
+
+        ArrayDeque<TreeNode> queue = new ArrayDeque<>();
+        queue.add(root);
+        int index = 0;
+        int nextChild = 1;
+        while (!queue.isEmpty()) {
+            TreeNode node = queue.poll();
+            isWordEnd[index] = node.isWordEnd;
+            firstChild[index] = nextChild;
+
+            for (char label: node.children.keySet()) {
+                labels[nextChild++] = label;
+                queue.add(node.children.get(label));
+            }
+            index++;
+        }
+        firstChild[numberOfNodes] = nextChild;
+    }
+
+    //////////////////////////////
+
+    /**
+     * Checks if the chars of a given text between two indexes are a stop word,
+     * by walking the trie directly over the text without building a String.
+     *
+     * @param text  the text that contains the word.
+     * @param start the index of the first char of the word.
+     * @param end   the index after the last char of the word.
+     * @return true if the word is a stop word, false otherwise.
+     */
+    public boolean matches(CharSequence text, int start, int end) {
+        int node = 0;
+        for (int i = start; i < end; i++) {
+            node = findChild(node, text.charAt(i));
+            if (node == -1) return false;
+        }
+        return isWordEnd[node];
+    }
+
+    public boolean matches(CharSequence word) {
+        return matches(word, 0, word.length());
+    }
+
+    public int size() {return size;}
+
+    /**
+     * Finds the child of a node that has the given label using binary search.
+     *
+     * @param node  the index of the parent node.
+     * @param label the label of the child.
+     * @return the index of the child, or -1 if the node has no child with this label.
+     */
+    private int findChild(int node, char label) {
+        int low = firstChild[node];
+        int high = firstChild[node + 1] - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char middleLabel = labels[middle];
+            if (middleLabel < label) low = middle + 1;
+            else if (middleLabel > label) high = middle - 1;
+            else return middle;
+        }
+
+        return -1;
+    }
+
+    //////////////////////////////
+
+    /**
+     * A node of the temporary pointer based trie, used only while building the arrays.
+     */
+    private static class TreeNode {
+        private final TreeMap<Character, TreeNode> children = new TreeMap<>();
+        private boolean isWordEnd = false;
+    }
+}
@@ -2,181 +2,316 @@ package LanguageProcesses.Utils;
 
 import LanguageProcesses.Corpus;
 
+import java.util.ArrayList;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
 public class TextBuilder {
-    private String text;
+    /**
+     * Initialize the stages that can be fused together into one pass by the compile method,
+     *      they are compared by reference (the stop words stages by their class) to find them in the list of stages.
+     * Initialize the text that the stages will be applied to when calling the build method.
+     * Initialize the list of stages in the order they were asked for, no stage is applied
+     *      before calling the build or compile methods.
+     */
+    private static final UnaryOperator<String> NORMALIZE_TEXT = Corpus::normalizeText;
+    private static final StopWordsStage REMOVE_STOP_WORDS = new StopWordsStage(null);
+    private static final UnaryOperator<String> CLEAN_THE_LINE = Corpus::cleanTheLine;
+
+    private final String text;
+    private final ArrayList<UnaryOperator<String>> stages = new ArrayList<>();
 
     public TextBuilder(String text) {
         this.text = text;
     }
 
+    public TextBuilder() {
+        this(null);
+    }
+
 
     public TextBuilder replaceAll(String target, String replacement) {
-        this.text = this.text.replaceAll(target, replacement);
-        return this;
+        return addStage(text -> text.replaceAll(target, replacement));
     }
 
 
     
     public TextBuilder normalizeText() {
-        this.text = Corpus.normalizeText(this.text);
-        return this;
+        return addStage(NORMALIZE_TEXT);
     }
     public TextBuilder removeStopWords() {
-        this.text = Corpus.removeStopWords(this.text);
-        return this;
+        return addStage(REMOVE_STOP_WORDS);
+    }
+    public TextBuilder removeStopWords(StopWordMatcher stopWords) {
+        return addStage(new StopWordsStage(stopWords));
     }
     public TextBuilder cleanTheLine() {
-        this.text = Corpus.cleanTheLine(this.text);
-        return this;
+        return addStage(CLEAN_THE_LINE);
     }
 
 
 
     public TextBuilder replaceUnderscoreWithSpace() {
-        this.text = Corpus.replaceUnderscoreWithSpace(this.text);
-        return this;
+        return addStage(Corpus::replaceUnderscoreWithSpace);
     }
     public TextBuilder replaceSpecialCharactersWithWords() {
-        this.text = Corpus.replaceSpecialCharactersWithWords(this.text);
-        return this;
+        return addStage(Corpus::replaceSpecialCharactersWithWords);
     }
     public TextBuilder removeKashida() {
-        this.text = Corpus.removeKashida(this.text);
-        return this;
+        return addStage(Corpus::removeKashida);
     }
     public TextBuilder replaceAlternativeLetters() {
-        this.text = Corpus.replaceAlternativeLetters(this.text);
-        return this;
+        return addStage(Corpus::replaceAlternativeLetters);
     }
     public TextBuilder removeConsecutiveRedundantCharacters(int num) {
-        this.text = Corpus.removeConsecutiveRedundantCharacters(this.text, num);
-        return this;
+        return addStage(text -> Corpus.removeConsecutiveRedundantCharacters(text, num));
     }
     public TextBuilder replaceArabicLettersToMatch() {
-        this.text = Corpus.replaceArabicLettersToMatch(this.text);
-        return this;
+        return addStage(Corpus::replaceArabicLettersToMatch);
     }
     public TextBuilder removeNonArabic() {
-        this.text = Corpus.removeNonArabic(this.text);
-        return this;
+        return addStage(Corpus::removeNonArabic);
     }
 
 
 
     public TextBuilder replaceWithLetterAlef() {
-        this.text = Corpus.replaceWithLetterAlef(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterAlef);
     }
     public TextBuilder replaceWithLetterBeh() {
-        this.text = Corpus.replaceWithLetterBeh(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterBeh);
     }
     public TextBuilder replaceWithLetterTeh() {
-        this.text = Corpus.replaceWithLetterTeh(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterTeh);
     }
     public TextBuilder replaceWithLetterJeem() {
-        this.text = Corpus.replaceWithLetterJeem(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterJeem);
     }
     public TextBuilder replaceWithLetterHah() {
-        this.text = Corpus.replaceWithLetterHah(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterHah);
     }
     public TextBuilder replaceWithLetterKhah() {
-        this.text = Corpus.replaceWithLetterKhah(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterKhah);
     }
     public TextBuilder replaceWithLetterDal() {
-        this.text = Corpus.replaceWithLetterDal(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterDal);
     }
     public TextBuilder replaceWithLetterReh() {
-        this.text = Corpus.replaceWithLetterReh(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterReh);
     }
     public TextBuilder replaceWithLetterZain() {
-        this.text = Corpus.replaceWithLetterZain(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterZain);
     }
     public TextBuilder replaceWithLetterSeen() {
-        this.text = Corpus.replaceWithLetterSeen(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterSeen);
     }
     public TextBuilder replaceWithLetterSheen() {
-        this.text = Corpus.replaceWithLetterSheen(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterSheen);
     }
     public TextBuilder replaceWithLetterSad() {
-        this.text = Corpus.replaceWithLetterSad(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterSad);
     }
     public TextBuilder replaceWithLetterDad() {
-        this.text = Corpus.replaceWithLetterDad(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterDad);
     }
     public TextBuilder replaceWithLetterTah() {
-        this.text = Corpus.replaceWithLetterTah(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterTah);
     }
     public TextBuilder replaceWithLetterAin() {
-        this.text = Corpus.replaceWithLetterAin(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterAin);
     }
     public TextBuilder replaceWithLetterGhain() {
-        this.text = Corpus.replaceWithLetterGhain(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterGhain);
     }
     public TextBuilder replaceWithLetterFeh() {
-        this.text = Corpus.replaceWithLetterFeh(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterFeh);
     }
     public TextBuilder replaceWithLetterQaf() {
-        this.text = Corpus.replaceWithLetterQaf(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterQaf);
     }
     public TextBuilder replaceWithLetterKaf() {
-        this.text = Corpus.replaceWithLetterKaf(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterKaf);
     }
     public TextBuilder replaceWithLetterLam() {
-        this.text = Corpus.replaceWithLetterLam(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterLam);
     }
     public TextBuilder replaceWithLetterMeem() {
-        this.text = Corpus.replaceWithLetterMeem(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterMeem);
     }
     public TextBuilder replaceWithLetterNoon() {
-        this.text = Corpus.replaceWithLetterNoon(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterNoon);
     }
     public TextBuilder replaceWithLetterHeh() {
-        this.text = Corpus.replaceWithLetterHeh(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterHeh);
     }
     public TextBuilder replaceWithLetterWaw() {
-        this.text = Corpus.replaceWithLetterWaw(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterWaw);
     }
     public TextBuilder replaceWithLetterYeh() {
-        this.text = Corpus.replaceWithLetterYeh(this.text);
-        return this;
+        return addStage(Corpus::replaceWithLetterYeh);
     }
 
 
     public TextBuilder replaceUnderAlefWithUpperAlef() {
-        this.text = Corpus.replaceUnderAlefWithUpperAlef(this.text);
-        return this;
+        return addStage(Corpus::replaceUnderAlefWithUpperAlef);
     }
     public TextBuilder replaceTehMarbutaWithHeh() {
-        this.text = Corpus.replaceTehMarbutaWithHeh(this.text);
-        return this;
+        return addStage(Corpus::replaceTehMarbutaWithHeh);
     }
 
     
 
     public String build() {
-        return this.text;
+        return compile().apply(this.text);
+    }
+
+    /**
+     * Compiles the recorded stages into one operator that can be applied to many texts.
+     * Every normalizeText, removeStopWords and cleanTheLine stages that come in this order
+     * and end with cleanTheLine are fused into one FusedWordFilter, which scans the text once
+     * and does not build any intermediate String. Any other stage is applied as it is.
+     * The operator accepts any CharSequence, so a fused first stage can read the chars of a
+     * reused buffer directly without turning it into a String.
+     *
+     * @return the operator that applies all the stages to a given text.
+     */
+    public Function<CharSequence, String> compile() {
+        ArrayList<Function<CharSequence, String>> compiledStages = new ArrayList<>();
+
+        int i = 0;
+        while (i < stages.size()) {
+            int j = i;
+            boolean normalize = false;
+            StopWordsStage removeStopWords = null;
+
+            if (stages.get(j) == NORMALIZE_TEXT) {
+                normalize = true;
+                j++;
+            }
+            if (j < stages.size() && stages.get(j) instanceof StopWordsStage) {
+                removeStopWords = (StopWordsStage) stages.get(j);
+                j++;
+            }
+
+            if (j < stages.size() && stages.get(j) == CLEAN_THE_LINE) {
+                compiledStages.add(new FusedWordFilter(normalize, removeStopWords));
+                i = j + 1;
+            } else {
+                UnaryOperator<String> stage = stages.get(i);
+                compiledStages.add(text -> stage.apply(text.toString()));
+                i++;
+            }
+        }
+
+        if (compiledStages.size() == 1) return compiledStages.get(0);
+        return text -> {
+            String result = text.toString();
+            for (Function<CharSequence, String> stage: compiledStages) {
+                result = stage.apply(result);
+            }
+            return result;
+        };
+    }
+
+    private TextBuilder addStage(UnaryOperator<String> stage) {
+        this.stages.add(stage);
+        return this;
+    }
+
+    //////////////////////////////
+
+    /**
+     * A stage that removes the stop words of a matcher, or the stop words read by Corpus when the
+     * matcher is null, which are looked up when the stage is applied.
+     */
+    private static class StopWordsStage implements UnaryOperator<String> {
+        private final StopWordMatcher stopWords;
+
+        StopWordsStage(StopWordMatcher stopWords) {
+            this.stopWords = stopWords;
+        }
+
+        @Override
+        public String apply(String text) {
+            return (stopWords == null) ? Corpus.removeStopWords(text) : Corpus.removeStopWords(text, stopWords);
+        }
+
+        private boolean isStopWord(CharSequence text, int start, int end) {
+            return (stopWords == null) ? Corpus.isStopWord(text, start, end) : stopWords.matches(text, start, end);
+        }
+    }
+
+    /**
+     * An operator that gives the same output as applying normalizeText (optional),
+     * removeStopWords (optional) and cleanTheLine one after the other.
+     * The text is normalized into one buffer, then the words are found in one scan over the
+     * buffer, and the kept words are moved in place to the start of the buffer.
+     * A word is kept if its length is more than 2 and the space separated token that contains
+     * it is not a stop word, the stop word is only looked up for tokens that have a kept word.
+     */
+    private static class FusedWordFilter implements Function<CharSequence, String> {
+        private final boolean normalize;
+        private final StopWordsStage removeStopWords;
+
+        FusedWordFilter(boolean normalize, StopWordsStage removeStopWords) {
+            this.normalize = normalize;
+            this.removeStopWords = removeStopWords;
+        }
+
+        @Override
+        public String apply(CharSequence text) {
+            StringBuilder buffer = new StringBuilder(text.length());
+            if (normalize)
+                ArabicNormalizer.normalize(text, 0, text.length(), buffer);
+            else
+                buffer.append(text);
+
+            int length = buffer.length();
+            int writeIndex = 0;
+            int tokenStart = 0;
+            while (tokenStart < length) {
+                int tokenEnd = tokenStart;
+                while (tokenEnd < length && buffer.charAt(tokenEnd) != ' ') tokenEnd++;
+
+                int checkedToken = 0;    // 0: not looked up yet, 1: not a stop word, -1: a stop word
+                int wordStart = tokenStart;
+                while (wordStart < tokenEnd && checkedToken >= 0) {
+                    while (wordStart < tokenEnd && isWhitespace(buffer.charAt(wordStart))) wordStart++;
+                    int wordEnd = wordStart;
+                    while (wordEnd < tokenEnd && !isWhitespace(buffer.charAt(wordEnd))) wordEnd++;
+
+                    int trimmedStart = wordStart;
+                    int trimmedEnd = wordEnd;
+                    while (trimmedStart < trimmedEnd && buffer.charAt(trimmedStart) <= ' ') trimmedStart++;
+                    while (trimmedEnd > trimmedStart && buffer.charAt(trimmedEnd - 1) <= ' ') trimmedEnd--;
+
+                    if (trimmedEnd - trimmedStart > 2) {
+                        if (checkedToken == 0)
+                            checkedToken = (removeStopWords != null && removeStopWords.isStopWord(buffer, tokenStart, tokenEnd)) ? -1 : 1;
+
+                        if (checkedToken > 0) {
+                            if (writeIndex > 0) buffer.setCharAt(writeIndex++, ' ');
+                            for (int k = trimmedStart; k < trimmedEnd; k++) {
+                                buffer.setCharAt(writeIndex++, buffer.charAt(k));
+                            }
+                        }
+                    }
+
+                    wordStart = wordEnd;
+                }
+
+                tokenStart = tokenEnd + 1;
+            }
+
+            buffer.setLength(writeIndex);
+            return buffer.toString();
+        }
+
+        /**
+         * Checks if a given char is one of the whitespaces matched by the regex "\s".
+         */
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+        }
     }
 }
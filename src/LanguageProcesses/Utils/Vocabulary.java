@@ -0,0 +1,237 @@
+package LanguageProcesses.Utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class Vocabulary {
+    /**
+     * Initialize the ID returned for the words that are not in the vocabulary.
+     * Initialize the list of words, where the index of each word is its ID.
+     * Initialize the open addressing hash table that maps each word to its ID, every slot holds
+     *      the ID of a word plus one, or zero if the slot is empty. The words are looked up
+     *      directly over a span of a text, so no String is built to look up a word.
+     */
+    public static final int UNKNOWN_WORD = -1;
+
+    private final ArrayList<String> words = new ArrayList<>();
+    private int[] table = new int[1024];
+
+    //////////////////////////////
+
+    /**
+     * Reads a vocabulary from a file that contains one word per line, in the order of their IDs.
+     *
+     * @param file the vocabulary file.
+     * @return the vocabulary.
+     * @throws IOException if there is an error reading from the file.
+     */
+    public static Vocabulary readFromFile(File file) throws IOException {
+        Vocabulary vocabulary = new Vocabulary();
+
+        BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8));
+        String word;
+        while ((word = reader.readLine()) != null) {
+            vocabulary.getOrAddId(word, 0, word.length());
+        }
+        reader.close();
+
+        return vocabulary;
+    }
+
+    /**
+     * Saves the vocabulary to a file, one word per line in the order of their IDs.
+     *
+     * @param file the vocabulary file.
+     * @throws IOException if there is an error writing to the file.
+     */
+    public void saveToFile(File file) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8));
+        for (String word: words) {
+            bw.write(word);
+            bw.newLine();
+        }
+        bw.close();
+    }
+
+    //////////////////////////////
+
+    /**
+     * Splits a text into words separated by spaces and returns the ID of each word.
+     *
+     * @param text the text to be split.
+     * @return the IDs of the words, where the words that are not in the vocabulary are UNKNOWN_WORD.
+     */
+    public int[] tokenize(CharSequence text) {
+        return tokenize(text, false);
+    }
+
+    /**
+     * Splits a text into words separated by spaces and returns the ID of each word,
+     * adding the new words to the vocabulary.
+     *
+     * @param text the text to be split.
+     * @return the IDs of the words.
+     */
+    public int[] tokenizeAndAdd(CharSequence text) {
+        return tokenize(text, true);
+    }
+
+    public int getId(CharSequence word) {
+        return getId(word, 0, word.length());
+    }
+
+    /**
+     * Returns the ID of the word between two indexes of a text.
+     *
+     * @param text  the text that contains the word.
+     * @param start the index of the first char of the word.
+     * @param end   the index after the last char of the word.
+     * @return the ID of the word, or UNKNOWN_WORD if it is not in the vocabulary.
+     */
+    public int getId(CharSequence text, int start, int end) {
+        int slot = findSlot(text, start, end, hash(text, start, end));
+        return table[slot] - 1;
+    }
+
+    /**
+     * Returns the ID of the word between two indexes of a text, adding the word to the
+     * vocabulary with the next free ID if it is not in it.
+     *
+     * @param text  the text that contains the word.
+     * @param start the index of the first char of the word.
+     * @param end   the index after the last char of the word.
+     * @return the ID of the word.
+     */
+    public int getOrAddId(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int slot = findSlot(text, start, end, hash);
+        if (table[slot] != 0) return table[slot] - 1;
+
+        int id = words.size();
+        words.add(text.subSequence(start, end).toString());
+        table[slot] = id + 1;
+
+        if (words.size() * 2 > table.length) resize();
+        return id;
+    }
+
+    /**
+     * Adds the words of another vocabulary that are not in this one, in the order of their IDs.
+     * When the other vocabulary was built from the text that follows the text of this one, the
+     * IDs are the same as if both texts were added to this vocabulary one after the other.
+     *
+     * @param other the other vocabulary.
+     * @return the ID in this vocabulary of each ID of the other vocabulary.
+     */
+    public int[] addAll(Vocabulary other) {
+        int[] ids = new int[other.size()];
+        for (int id = 0; id < ids.length; id++) {
+            String word = other.getWord(id);
+            ids[id] = getOrAddId(word, 0, word.length());
+        }
+        return ids;
+    }
+
+    public String getWord(int id) {return words.get(id);}
+    public int size() {return words.size();}
+
+    /**
+     * Joins the words of the given IDs with spaces.
+     *
+     * @param ids  the IDs of the words.
+     * @param from the index of the first ID.
+     * @param n    the number of IDs.
+     * @return the words as one text.
+     */
+    public String toText(int[] ids, int from, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < from + n; i++) {
+            if (i > from) sb.append(' ');
+            sb.append(words.get(ids[i]));
+        }
+        return sb.toString();
+    }
+
+    public String toText(int[] ids) {
+        return toText(ids, 0, ids.length);
+    }
+
+    //////////////////////////////
+
+    private int[] tokenize(CharSequence text, boolean addNewWords) {
+        int[] ids = new int[8];
+        int numberOfWords = 0;
+
+        int length = text.length();
+        int wordStart = 0;
+        while (wordStart < length) {
+            while (wordStart < length && text.charAt(wordStart) == ' ') wordStart++;
+            int wordEnd = wordStart;
+            while (wordEnd < length && text.charAt(wordEnd) != ' ') wordEnd++;
+            if (wordEnd == wordStart) break;
+
+            if (numberOfWords == ids.length) ids = Arrays.copyOf(ids, ids.length * 2);
+            ids[numberOfWords++] = addNewWords ? getOrAddId(text, wordStart, wordEnd) : getId(text, wordStart, wordEnd);
+            wordStart = wordEnd;
+        }
+
+        return Arrays.copyOf(ids, numberOfWords);
+    }
+
+    /**
+     * Finds the slot of a word in the table using linear probing.
+     *
+     * @return the slot that holds the word, or the empty slot where it should be added.
+     */
+    private int findSlot(CharSequence text, int start, int end, int hash) {
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+
+        while (table[slot] != 0) {
+            String word = words.get(table[slot] - 1);
+            if (word.hashCode() == hash && contentEquals(word, text, start, end)) return slot;
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void resize() {
+        int[] newTable = new int[table.length * 2];
+        int mask = newTable.length - 1;
+
+        for (int id = 0; id < words.size(); id++) {
+            int slot = mix(words.get(id).hashCode()) & mask;
+            while (newTable[slot] != 0) slot = (slot + 1) & mask;
+            newTable[slot] = id + 1;
+        }
+
+        table = newTable;
+    }
+
+    /**
+     * Computes the same hash as String.hashCode for the chars between two indexes of a text.
+     */
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean contentEquals(String word, CharSequence text, int start, int end) {
+        if (word.length() != end - start) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) != text.charAt(start + i)) return false;
+        }
+        return true;
+    }
+}